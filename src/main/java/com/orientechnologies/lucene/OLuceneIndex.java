@@ -19,10 +19,16 @@ package com.orientechnologies.lucene;
 import org.apache.lucene.search.IndexSearcher;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Created by Enrico Risa (e.risa-at-orientechnologies.com) on 19/03/14.
  */
 public interface OLuceneIndex {
     public IndexSearcher searcher() throws IOException;
+
+    /**
+     * Returns the counters of the index, see {@link OLuceneIndexEngine#getMetrics()}.
+     */
+    public Map<String, Object> getMetrics();
 }
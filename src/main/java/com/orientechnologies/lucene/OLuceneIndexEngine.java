@@ -17,8 +17,10 @@
 package com.orientechnologies.lucene;
 
 import com.orientechnologies.common.concur.resource.OSharedResourceAdaptiveExternal;
+import com.orientechnologies.lucene.hook.OLuceneClassIndexRegistry;
 import com.orientechnologies.lucene.manager.OLuceneIndexManagerAbstract;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.index.*;
@@ -31,6 +33,8 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 
 public class OLuceneIndexEngine<V> extends OSharedResourceAdaptiveExternal implements OIndexEngine<V> {
 
@@ -68,11 +72,13 @@ public class OLuceneIndexEngine<V> extends OSharedResourceAdaptiveExternal imple
   @Override
   public void delete() {
     lucene.delete();
+    OLuceneClassIndexRegistry.invalidate(ODatabaseRecordThreadLocal.INSTANCE.getIfDefined());
   }
 
   @Override
   public void deleteWithoutLoad(String indexName) {
     lucene.deleteWithoutLoad(indexName);
+    OLuceneClassIndexRegistry.invalidate(ODatabaseRecordThreadLocal.INSTANCE.getIfDefined());
   }
 
   @Override
@@ -99,6 +105,14 @@ public class OLuceneIndexEngine<V> extends OSharedResourceAdaptiveExternal imple
     return lucene.remove(key, rid);
   }
 
+  public boolean supportsUpdate() {
+    return lucene.supportsUpdate();
+  }
+
+  public void update(Object key, OIdentifiable value) {
+    lucene.update(key, value.getIdentity());
+  }
+
   @Override
   public ORID getIdentity() {
     return lucene.getIdentity();
@@ -202,6 +216,58 @@ public class OLuceneIndexEngine<V> extends OSharedResourceAdaptiveExternal imple
     lucene.setRebuilding(rebuilding);
   }
 
+  public boolean isRebuilding() {
+    return lucene.isRebuilding();
+  }
+
+  public boolean isAsync() {
+    return lucene.isAsync();
+  }
+
+  public void removeBatch(Map<Object, ? extends Collection<OIdentifiable>> entries) {
+    lucene.removeBatch(entries);
+  }
+
+  public void putBatch(Map<Object, ? extends Collection<OIdentifiable>> entries) {
+    lucene.putBatch(entries);
+  }
+
+  public boolean isConcurrentWrites() {
+    return lucene.isConcurrentWrites();
+  }
+
+  public void acquireWriteLock(boolean exclusive) {
+    lucene.acquireWriteLock(exclusive);
+  }
+
+  public void releaseWriteLock(boolean exclusive) {
+    lucene.releaseWriteLock(exclusive);
+  }
+
+  /**
+   * Returns the counters of the index: searcher leases, query and result caches, plus the process-wide reopen lag, merges and
+   * off-heap memory.
+   */
+  public Map<String, Object> getMetrics() {
+    return lucene.getMetrics();
+  }
+
+  public void drainAsyncIndexing() {
+    lucene.drainAsyncIndexing();
+  }
+
+  public long putAsync(Object key, OIdentifiable value) {
+    return lucene.putAsync(key, value);
+  }
+
+  public long removeAsync(Object key, OIdentifiable value) {
+    return lucene.removeAsync(key, value);
+  }
+
+  public long updateAsync(Object key, OIdentifiable value) {
+    return lucene.updateAsync(key, value);
+  }
+
   public IndexSearcher searcher() throws IOException {
     return lucene.getSearcher();
   }
@@ -17,6 +17,7 @@
 package com.orientechnologies.lucene;
 
 import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.lucene.hook.OLuceneClassIndexRegistry;
 import com.orientechnologies.lucene.index.OLuceneFullTextIndex;
 import com.orientechnologies.lucene.index.OLuceneSpatialIndex;
 import com.orientechnologies.lucene.manager.OLuceneFullTextIndexManager;
@@ -100,7 +101,7 @@ public class OLuceneIndexFactory implements OIndexFactory, ODatabaseLifecycleLis
 
   @Override
   public void onOpen(ODatabaseInternal iDatabase) {
-
+    OLuceneClassIndexRegistry.invalidate(iDatabase);
   }
 
   @Override
@@ -121,16 +122,17 @@ public class OLuceneIndexFactory implements OIndexFactory, ODatabaseLifecycleLis
     } catch (Exception e) {
       OLogManager.instance().warn(this, "Error on dropping Lucene indexes", e);
     }
+    OLuceneClassIndexRegistry.invalidate(iDatabase);
   }
 
   @Override
   public void onCreateClass(ODatabaseInternal iDatabase, OClass iClass) {
-
+    OLuceneClassIndexRegistry.invalidate(iDatabase);
   }
 
   @Override
   public void onDropClass(ODatabaseInternal iDatabase, OClass iClass) {
-
+    OLuceneClassIndexRegistry.invalidate(iDatabase);
   }
 
   protected OIndexInternal<?> createIndex(String name, ODatabaseDocumentInternal oDatabaseRecord, String indexType,
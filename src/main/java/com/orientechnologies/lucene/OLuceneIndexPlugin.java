@@ -17,7 +17,10 @@
 package com.orientechnologies.lucene;
 
 import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.lucene.directory.OLuceneDirectoryFactories;
+import com.orientechnologies.lucene.directory.OOffHeapDirectory;
 import com.orientechnologies.lucene.manager.OLuceneIndexManagerAbstract;
+import com.orientechnologies.lucene.manager.OLuceneMergeCoordinator;
 import com.orientechnologies.lucene.operator.OLuceneNearOperator;
 import com.orientechnologies.lucene.operator.OLuceneTextOperator;
 import com.orientechnologies.lucene.operator.OLuceneWithinOperator;
@@ -57,7 +60,24 @@ public class OLuceneIndexPlugin extends OServerPluginAbstract implements ODataba
 
   @Override
   public void config(OServer oServer, OServerParameterConfiguration[] iParams) {
-
+    double maxMBPerSec = OLuceneMergeCoordinator.DEFAULT_MAX_MB_PER_SEC;
+    double minMBPerSec = OLuceneMergeCoordinator.DEFAULT_MIN_MB_PER_SEC;
+    long busyWritesPerSec = OLuceneMergeCoordinator.DEFAULT_BUSY_WRITES_PER_SEC;
+    for (OServerParameterConfiguration param : iParams) {
+      if (param.name.equalsIgnoreCase(OLuceneDirectoryFactories.DIRECTORY))
+        OLuceneDirectoryFactories.setDefaultName(param.value);
+      else if (param.name.equalsIgnoreCase(OOffHeapDirectory.OFF_HEAP_MAX_MB))
+        OOffHeapDirectory.setGlobalMaxBytes(Long.parseLong(param.value) * 1024 * 1024);
+      else if (param.name.equalsIgnoreCase(OLuceneMergeCoordinator.MERGE_MAX_THREADS))
+        OLuceneMergeCoordinator.setMaxMerges(Integer.parseInt(param.value));
+      else if (param.name.equalsIgnoreCase(OLuceneMergeCoordinator.MERGE_MAX_MB_PER_SEC))
+        maxMBPerSec = Double.parseDouble(param.value);
+      else if (param.name.equalsIgnoreCase(OLuceneMergeCoordinator.MERGE_MIN_MB_PER_SEC))
+        minMBPerSec = Double.parseDouble(param.value);
+      else if (param.name.equalsIgnoreCase(OLuceneMergeCoordinator.MERGE_BUSY_WRITES_PER_SEC))
+        busyWritesPerSec = Long.parseLong(param.value);
+    }
+    OLuceneMergeCoordinator.setRate(maxMBPerSec, minMBPerSec, busyWritesPerSec);
   }
 
   @Override
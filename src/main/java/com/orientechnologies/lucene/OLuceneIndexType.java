@@ -17,7 +17,9 @@
 package com.orientechnologies.lucene;
 
 import com.orientechnologies.lucene.manager.OLuceneIndexManagerAbstract;
+import com.orientechnologies.lucene.query.OLuceneQueryCache;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.index.OCompositeKey;
 import com.orientechnologies.orient.core.index.OIndexDefinition;
 import org.apache.lucene.analysis.Analyzer;
@@ -96,6 +98,20 @@ public class OLuceneIndexType {
     return new TermQuery(new Term(OLuceneIndexManagerAbstract.RID, value.toString()));
   }
 
+  public static Term createIdTerm(OIdentifiable value) {
+    return new Term(OLuceneIndexManagerAbstract.RID, value.getIdentity().toString());
+  }
+
+  /**
+   * Adds the cluster id and position of the record as numeric doc values, so the hits can be resolved to RIDs without loading
+   * the stored fields.
+   */
+  public static void addRidDocValues(Document doc, OIdentifiable value) {
+    final ORID rid = value.getIdentity();
+    doc.add(new NumericDocValuesField(OLuceneIndexManagerAbstract.RID_CLUSTER, rid.getClusterId()));
+    doc.add(new NumericDocValuesField(OLuceneIndexManagerAbstract.RID_POSITION, rid.getClusterPosition()));
+  }
+
   public static Query createDeleteQuery(OIdentifiable value, List<String> fields, Object key) {
 
     BooleanQuery booleanQuery = new BooleanQuery();
@@ -116,6 +132,14 @@ public class OLuceneIndexType {
   }
 
   public static Query createFullQuery(OIndexDefinition index, Object key, Analyzer analyzer, Version version) throws ParseException {
+    return createFullQuery(index, key, analyzer, version, null);
+  }
+
+  /**
+   * Parses the query, going through the cache of parsed queries if not null.
+   */
+  public static Query createFullQuery(OIndexDefinition index, Object key, Analyzer analyzer, Version version,
+      OLuceneQueryCache cache) throws ParseException {
 
     String query = "";
     if (key instanceof OCompositeKey) {
@@ -133,7 +157,15 @@ public class OLuceneIndexType {
       query = key.toString();
     }
 
-    return getQueryParser(index, query, analyzer, version);
+    if (cache == null)
+      return getQueryParser(index, query, analyzer, version);
+
+    Query parsed = cache.get(query, index.getFields());
+    if (parsed == null) {
+      parsed = getQueryParser(index, query, analyzer, version);
+      cache.put(query, index.getFields(), parsed);
+    }
+    return parsed;
 
   }
 
@@ -17,7 +17,9 @@
 package com.orientechnologies.lucene;
 
 import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.lucene.collections.OLuceneRidResolver;
 import com.orientechnologies.lucene.manager.OLuceneIndexManagerAbstract;
+import com.orientechnologies.lucene.manager.OLuceneSearcherLeases;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.index.OIndexDefinition;
 import org.apache.lucene.document.Document;
@@ -29,21 +31,39 @@ import java.util.Map;
 
 public class OLuceneMapEntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
 
-  private final OIndexDefinition definition;
-  private IndexReader            reader;
+  private final OIndexDefinition            definition;
+  private final OLuceneRidResolver          resolver;
+  private final OLuceneSearcherLeases.Lease lease;
+  private IndexReader                       reader;
 
-  private int                    currentIdx;
+  private int                               currentIdx;
 
   public OLuceneMapEntryIterator(IndexReader reader, OIndexDefinition definition) {
+    this(reader, definition, null);
+  }
+
+  /**
+   * Iterates the documents of the searcher of the lease, released when the last document is reached.
+   */
+  public OLuceneMapEntryIterator(OLuceneSearcherLeases.Lease lease, OIndexDefinition definition) {
+    this(lease.getSearcher().getIndexReader(), definition, lease);
+  }
+
+  private OLuceneMapEntryIterator(IndexReader reader, OIndexDefinition definition, OLuceneSearcherLeases.Lease lease) {
 
     this.reader = reader;
+    this.lease = lease;
     this.definition = definition;
+    this.resolver = new OLuceneRidResolver(reader);
     this.currentIdx = 0;
   }
 
   @Override
   public boolean hasNext() {
-    return currentIdx < reader.maxDoc();
+    final boolean hasNext = currentIdx < reader.maxDoc();
+    if (!hasNext && lease != null)
+      lease.release();
+    return hasNext;
   }
 
   @Override
@@ -59,7 +79,8 @@ public class OLuceneMapEntryIterator<K, V> implements Iterator<Map.Entry<K, V>>
         val = doc.get(OLuceneIndexManagerAbstract.KEY);
       }
       final String finalVal = val;
-      final ORecordId id = new ORecordId(doc.get(OLuceneIndexManagerAbstract.RID));
+      final ORecordId resolved = resolver.resolve(currentIdx);
+      final ORecordId id = resolved != null ? resolved : new ORecordId(doc.get(OLuceneIndexManagerAbstract.RID));
       currentIdx++;
       return new Map.Entry<K, V>() {
         @Override
@@ -0,0 +1,147 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.collections;
+
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.index.OIndexCursor;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Streams the hits of a Lucene query as index entries. The hits are pulled lazily in pages from the searcher leased by the
+ * result set, the first page sized on the prefetch size, and the searcher is released when the cursor is exhausted.
+ */
+public class LuceneIndexCursor implements OIndexCursor {
+
+  private final Object            key;
+  private final Set<OIdentifiable> resultSet;
+  private Iterator<OIdentifiable> iterator;
+
+  /**
+   * @param resultSet
+   *          hits of the query, null for no hits
+   * @param key
+   *          key returned with every entry, null if the entries do not share a key
+   */
+  public LuceneIndexCursor(Set<OIdentifiable> resultSet, Object key) {
+    this.resultSet = resultSet != null ? resultSet : Collections.<OIdentifiable> emptySet();
+    this.key = key;
+  }
+
+  @Override
+  public Map.Entry<Object, OIdentifiable> nextEntry() {
+    if (!hasNext())
+      return null;
+
+    final OIdentifiable next = next();
+    return new Map.Entry<Object, OIdentifiable>() {
+      @Override
+      public Object getKey() {
+        return key;
+      }
+
+      @Override
+      public OIdentifiable getValue() {
+        return next;
+      }
+
+      @Override
+      public OIdentifiable setValue(OIdentifiable value) {
+        throw new UnsupportedOperationException("setValue");
+      }
+    };
+  }
+
+  /**
+   * Materializes the remaining hits: meant for small results.
+   */
+  @Override
+  public Set<OIdentifiable> toValues() {
+    final Set<OIdentifiable> values = new HashSet<OIdentifiable>();
+    while (hasNext()) {
+      values.add(next());
+    }
+    return values;
+  }
+
+  @Override
+  public Set<Map.Entry<Object, OIdentifiable>> toEntries() {
+    final Set<Map.Entry<Object, OIdentifiable>> entries = new HashSet<Map.Entry<Object, OIdentifiable>>();
+    Map.Entry<Object, OIdentifiable> entry;
+    while ((entry = nextEntry()) != null) {
+      entries.add(entry);
+    }
+    return entries;
+  }
+
+  @Override
+  public Set<Object> toKeys() {
+    final boolean empty = !hasNext();
+    while (hasNext()) {
+      next();
+    }
+    return empty || key == null ? Collections.emptySet() : Collections.singleton(key);
+  }
+
+  /**
+   * Bounds the query to the prefetch size, set by the SQL executor to SKIP plus LIMIT. Only effective before the cursor is first
+   * moved.
+   */
+  @Override
+  public void setPrefetchSize(int prefetchSize) {
+    if (iterator == null && resultSet instanceof LuceneResultSet)
+      ((LuceneResultSet) resultSet).setLimit(prefetchSize);
+  }
+
+  @Override
+  public boolean hasNext() {
+    return getIterator().hasNext();
+  }
+
+  @Override
+  public OIdentifiable next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    return getIterator().next();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("remove");
+  }
+
+  /**
+   * Releases the searcher before the end of the hits.
+   */
+  public void close() {
+    if (resultSet instanceof LuceneResultSet)
+      ((LuceneResultSet) resultSet).close();
+  }
+
+  private Iterator<OIdentifiable> getIterator() {
+    if (iterator == null)
+      iterator = resultSet.iterator();
+    return iterator;
+  }
+}
@@ -20,6 +20,8 @@ package com.orientechnologies.lucene.collections;
 
 import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.lucene.manager.OLuceneIndexManagerAbstract;
+import com.orientechnologies.lucene.manager.OLuceneSearcherLeases;
+import com.orientechnologies.lucene.query.OLuceneResultCache;
 import com.orientechnologies.lucene.query.QueryContext;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.id.OContextualRecordId;
@@ -27,32 +29,105 @@ import com.orientechnologies.orient.core.record.impl.ODocument;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.facet.*;
 import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHitCountCollector;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Enrico Risa on 28/10/14.
  */
-public class LuceneResultSet implements Set<OIdentifiable> {
-
-  private TopDocs                     topDocs;
-  private Query                       query;
-  private OLuceneIndexManagerAbstract manager;
-  private QueryContext                queryContext;
-  private static Integer              PAGE_SIZE = 50;
+public class LuceneResultSet implements Set<OIdentifiable>, Closeable {
+
+  public static final String           MAX_PAGE_SIZE         = "resultMaxPageSize";
+  public static final String           PREFETCH              = "resultPrefetch";
+  public static final int              DEFAULT_MAX_PAGE_SIZE = 10000;
+
+  private static Integer               PAGE_SIZE             = 50;
+  private static final int             PAGE_GROWTH           = 4;
+  private static final ExecutorService PREFETCHERS           = createPrefetchers();
+
+  private TopDocs                      topDocs;
+  private Query                        query;
+  private OLuceneIndexManagerAbstract  manager;
+  private QueryContext                 queryContext;
+  private IndexSearcher                searcher;
+  private OLuceneSearcherLeases.Lease  lease;
+  private final int                    maxPageSize;
+  private final boolean                prefetch;
+  private int                          count                 = -1;
+  private int                          pageSize              = PAGE_SIZE;
+  private volatile Prefetch            prefetched;
 
   public LuceneResultSet(OLuceneIndexManagerAbstract manager, QueryContext queryContext) {
+    this(manager, queryContext, null);
+  }
+
+  /**
+   * Creates a result set holding the searcher of the lease. The lease is released when the iteration ends or the result set is
+   * closed; if neither happens it is reclaimed as leaked once the result set is garbage collected.
+   */
+  public LuceneResultSet(OLuceneIndexManagerAbstract manager, QueryContext queryContext, OLuceneSearcherLeases.Lease lease) {
     this.manager = manager;
     this.queryContext = queryContext;
     this.query = queryContext.query;
-    fetchFirstBatch();
+    this.searcher = queryContext.searcher;
+    this.lease = lease;
+    this.maxPageSize = Math.max(PAGE_SIZE, manager.getResultMaxPageSize());
+    this.prefetch = manager.isResultPrefetch();
+    if (lease != null)
+      lease.bindTo(this);
+    // THE HITS ARE COLLECTED ON THE FIRST ITERATION: A COUNT ONLY NEEDS THE TOTAL
     fetchFacet();
   }
 
+  /**
+   * Cancels the prefetch in progress and releases the searcher. A new iteration after the close executes the query again on a
+   * fresh searcher.
+   */
+  @Override
+  public void close() {
+    final Prefetch pending = prefetched;
+    if (pending != null) {
+      prefetched = null;
+      // NOT INTERRUPTED, IT WOULD CLOSE THE FILE CHANNELS OF THE READER: A SEARCH ALREADY STARTED IS WAITED BEFORE RELEASING
+      if (!pending.cancelIfNotStarted())
+        waitPrefetch(pending);
+    }
+    if (lease != null)
+      lease.release();
+  }
+
+  private void waitPrefetch(Future<TopDocs> pending) {
+    try {
+      pending.get();
+    } catch (ExecutionException e) {
+      // NOBODY NEEDS THE PAGE ANYMORE
+    } catch (CancellationException e) {
+      // NOT STARTED
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private void fetchFacet() {
     if (queryContext.facet) {
       FacetsCollector facetsCollector = new FacetsCollector(true);
@@ -65,9 +140,9 @@ public class LuceneResultSet implements Set<OIdentifiable> {
           String[] path = queryContext.getDrillDownQuery().split(":");
           pathFacet = path[1].split("/");
           drillDownQuery.add(path[0], pathFacet);
-          FacetsCollector.search(queryContext.searcher, drillDownQuery, PAGE_SIZE, facetsCollector);
+          FacetsCollector.search(searcher, drillDownQuery, PAGE_SIZE, facetsCollector);
         } else {
-          FacetsCollector.search(queryContext.searcher, query, PAGE_SIZE, facetsCollector);
+          FacetsCollector.search(searcher, query, PAGE_SIZE, facetsCollector);
         }
 
         Facets facets = new FastTaxonomyFacetCounts(queryContext.reader, queryContext.getFacetConfig(), facetsCollector);
@@ -110,27 +185,116 @@ public class LuceneResultSet implements Set<OIdentifiable> {
 
   @Override
   public int size() {
-    return topDocs.totalHits;
+    if (topDocs != null)
+      return topDocs.totalHits;
+    if (count < 0)
+      count = countHits();
+    return count;
+  }
+
+  /**
+   * Counts the hits without collecting nor scoring them.
+   */
+  private int countHits() {
+    final TotalHitCountCollector collector = new TotalHitCountCollector();
+    try {
+      if (queryContext.filter != null)
+        searcher.search(query, queryContext.filter, collector);
+      else
+        searcher.search(query, collector);
+    } catch (IOException e) {
+      OLogManager.instance().error(this, "Error on counting documents by query '%s' in Lucene index", e, query);
+    }
+    return collector.getTotalHits();
+  }
+
+  /**
+   * Sets the size of the first page of hits, when the query has no LIMIT. Only effective before the first iteration.
+   */
+  public void setPageSize(int pageSize) {
+    if (pageSize > 0)
+      this.pageSize = Math.min(maxPageSize, pageSize);
+  }
+
+  /**
+   * Bounds the query to the hits its consumer needs, SKIP plus LIMIT, as the SQL executor hands them to the index cursor. Only
+   * effective before the first iteration.
+   */
+  public void setLimit(int limit) {
+    if (limit > 0 && topDocs == null)
+      queryContext.setLimit(limit).setSkip(0);
+  }
+
+  /**
+   * Sizes the first page to the hits the query can consume, SKIP plus LIMIT, so a bounded query is collected in one pass. The
+   * hits after that are still paged, because the query can filter out some of them.
+   */
+  private int firstPageSize() {
+    final int limit = queryContext.getLimit();
+    if (limit <= 0)
+      return pageSize;
+    return (int) Math.min(maxPageSize, (long) queryContext.getSkip() + limit);
+  }
+
+  private TopDocs searchAfter(ScoreDoc after, int size) throws IOException {
+    switch (queryContext.cfg) {
+    case FILTER_SORT:
+      return searcher.searchAfter(after, query, queryContext.filter, size, queryContext.sort);
+    case FILTER:
+      return searcher.searchAfter(after, query, queryContext.filter, size);
+    case SORT:
+      return searcher.searchAfter(after, query, size, queryContext.sort);
+    default:
+      return searcher.searchAfter(after, query, size);
+    }
+  }
+
+  private static ExecutorService createPrefetchers() {
+    final AtomicInteger counter = new AtomicInteger();
+    final int threads = Runtime.getRuntime().availableProcessors();
+    // BOUNDED: WHEN FULL THE PREFETCH IS SKIPPED AND THE PAGE IS SEARCHED BY THE CONSUMER
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(threads * 16), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "OrientDB Lucene Prefetcher " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   private void fetchFirstBatch() {
+    final int pageSize = firstPageSize();
+    final OLuceneResultCache resultCache = manager.getResultCache();
+    if (resultCache != null) {
+      topDocs = resultCache.get(searcher, query, queryContext.filter, queryContext.sort, pageSize);
+      if (topDocs != null)
+        return;
+    }
     try {
 
       switch (queryContext.cfg) {
 
       case NO_FILTER_NO_SORT:
-        topDocs = queryContext.searcher.search(query, PAGE_SIZE);
+        topDocs = searcher.search(query, pageSize);
         break;
       case FILTER_SORT:
-        topDocs = queryContext.searcher.search(query, queryContext.filter, PAGE_SIZE, queryContext.sort);
+        topDocs = searcher.search(query, queryContext.filter, pageSize, queryContext.sort);
         break;
       case FILTER:
-        topDocs = queryContext.searcher.search(query, queryContext.filter, PAGE_SIZE);
+        topDocs = searcher.search(query, queryContext.filter, pageSize);
         break;
       case SORT:
-        topDocs = queryContext.searcher.search(query, PAGE_SIZE, queryContext.sort);
+        topDocs = searcher.search(query, pageSize, queryContext.sort);
         break;
       }
+      if (topDocs != null)
+        manager.onHitsFetched(topDocs.scoreDocs.length);
+      if (resultCache != null)
+        resultCache.put(searcher, query, queryContext.filter, queryContext.sort, pageSize, topDocs);
     } catch (IOException e) {
       OLogManager.instance().error(this, "Error on fetching document by query '%s' to Lucene index", e, query);
     }
@@ -148,9 +312,24 @@ public class LuceneResultSet implements Set<OIdentifiable> {
 
   @Override
   public Iterator<OIdentifiable> iterator() {
+    if (lease != null && lease.isReleased()) {
+      try {
+        renewLease();
+        topDocs = null;
+      } catch (IOException e) {
+        OLogManager.instance().error(this, "Error on acquiring a searcher of Lucene index to run query '%s' again", e, query);
+      }
+    }
+    if (topDocs == null)
+      fetchFirstBatch();
     return new OLuceneResultSetIterator();
   }
 
+  private void renewLease() throws IOException {
+    lease = manager.leaseSearcher().bindTo(this);
+    searcher = lease.getSearcher();
+  }
+
   @Override
   public Object[] toArray() {
     throw new UnsupportedOperationException();
@@ -196,24 +375,58 @@ public class LuceneResultSet implements Set<OIdentifiable> {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Search of the next page in background. It runs on the searcher of the result set, so it is either cancelled before it starts
+   * or waited before the searcher is released.
+   */
+  private static final class Prefetch extends FutureTask<TopDocs> {
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private Prefetch(Callable<TopDocs> search) {
+      super(search);
+    }
+
+    @Override
+    public void run() {
+      if (started.compareAndSet(false, true))
+        super.run();
+    }
+
+    private boolean cancelIfNotStarted() {
+      return started.compareAndSet(false, true) && cancel(false);
+    }
+  }
+
   private class OLuceneResultSetIterator implements Iterator<OIdentifiable> {
 
-    ScoreDoc[]  array;
-    private int index;
-    private int localIndex;
-    private int totalHits;
+    ScoreDoc[]                         array;
+    private OContextualRecordId[]      rids;
+    private boolean                    pageResolved;
+    private OLuceneRidResolver         resolver;
+    private final boolean              documentRequired;
+    private int                        index;
+    private int                        localIndex;
+    private int                        totalHits;
+    private int                        pageSize;
 
     public OLuceneResultSetIterator() {
       totalHits = topDocs.totalHits;
       index = 0;
       localIndex = 0;
       array = topDocs.scoreDocs;
+      pageSize = Math.max(array.length, 1);
+      resolver = new OLuceneRidResolver(searcher);
+      documentRequired = manager.isDocumentRequired(queryContext);
+      resolvePage();
       manager.sendTotalHits(queryContext.context, topDocs);
     }
 
     @Override
     public boolean hasNext() {
-      return index < totalHits;
+      final boolean hasNext = index < totalHits;
+      if (!hasNext)
+        close();
+      return hasNext;
     }
 
     @Override
@@ -221,48 +434,143 @@ public class LuceneResultSet implements Set<OIdentifiable> {
       if (localIndex == array.length) {
         localIndex = 0;
         fetchMoreResult();
+        resolvePage();
       }
-      final ScoreDoc score = array[localIndex++];
-      Document ret = null;
-      OContextualRecordId res = null;
+      prefetch();
+      final ScoreDoc score = array[localIndex];
+      OContextualRecordId res = rids[localIndex];
+      localIndex++;
       try {
-        ret = queryContext.searcher.doc(score.doc);
-        String rId = ret.get(OLuceneIndexManagerAbstract.RID);
-        res = new OContextualRecordId(rId);
+        Document ret = null;
+        if (res == null || documentRequired) {
+          ret = searcher.doc(score.doc);
+          if (res == null)
+            res = new OContextualRecordId(ret.get(OLuceneIndexManagerAbstract.RID));
+        }
         manager.onRecordAddedToResultSet(queryContext, res, ret, score);
       } catch (IOException e) {
         e.printStackTrace();
       }
       index++;
+      releaseIfConsumed();
       return res;
     }
 
-    private void fetchMoreResult() {
+    /**
+     * Gives the searcher back as soon as the consumer got the SKIP plus LIMIT hits it asked for, if the rest of the page needs no
+     * searcher: a query stopping at its LIMIT abandons the iterator without closing it. Going on after that runs the query again
+     * on a new searcher, skipping the hits already returned.
+     */
+    private void releaseIfConsumed() {
+      final int limit = queryContext.getLimit();
+      if (limit > 0 && index == queryContext.getSkip() + limit && pageResolved && !documentRequired && prefetched == null)
+        close();
+    }
 
-      TopDocs topDocs = null;
+    private void resolvePage() {
       try {
+        rids = resolver.resolve(array);
+        manager.onHitsResolved(array.length);
+        pageResolved = true;
+        for (OContextualRecordId rid : rids) {
+          if (rid == null) {
+            pageResolved = false;
+            break;
+          }
+        }
+      } catch (IOException e) {
+        OLogManager.instance().error(this, "Error on resolving RIDs of Lucene hits, falling back to stored fields", e);
+        rids = new OContextualRecordId[array.length];
+        pageResolved = false;
+      }
+    }
+
+    private void fetchMoreResult() {
+      ScoreDoc after = array[array.length - 1];
+      int returned = 0;
+      if (lease != null && lease.isReleased()) {
+        try {
+          renewLease();
+          resolver = new OLuceneRidResolver(searcher);
+        } catch (IOException e) {
+          OLogManager.instance().error(this, "Error on acquiring a searcher of Lucene index to go on with query '%s'", e, query);
+        }
+        // DOC IDS AND SCORES DO NOT CARRY OVER TO THE NEW SEARCHER: RUN THE QUERY AGAIN AND SKIP THE HITS ALREADY RETURNED
+        after = null;
+        returned = index;
+      }
 
-        switch (queryContext.cfg) {
-
-        case NO_FILTER_NO_SORT:
-          topDocs = queryContext.searcher.searchAfter(array[array.length - 1], query, PAGE_SIZE);
-          break;
-        case FILTER_SORT:
-          topDocs = queryContext.searcher.searchAfter(array[array.length - 1], query, queryContext.filter, PAGE_SIZE,
-              queryContext.sort);
-          break;
-        case FILTER:
-          topDocs = queryContext.searcher.searchAfter(array[array.length - 1], query, queryContext.filter, PAGE_SIZE);
-          break;
-        case SORT:
-          topDocs = queryContext.searcher.searchAfter(array[array.length - 1], query, PAGE_SIZE, queryContext.sort);
-          break;
+      TopDocs topDocs = null;
+      final Prefetch pending = prefetched;
+      if (pending != null) {
+        try {
+          topDocs = pending.get();
+        } catch (ExecutionException e) {
+          OLogManager.instance().error(this, "Error on prefetching documents by query '%s' from Lucene index", e.getCause(), query);
+        } catch (CancellationException e) {
+          // CLOSED MEANWHILE: SEARCHED AGAIN BELOW
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          pending.cancel(false);
         }
-        array = topDocs.scoreDocs;
+        prefetched = null;
+      }
+
+      try {
+        if (topDocs == null)
+          topDocs = searchAfter(after, returned + nextPageSize());
+        manager.onHitsFetched(topDocs.scoreDocs.length);
+        if (returned > 0) {
+          array = Arrays.copyOfRange(topDocs.scoreDocs, Math.min(returned, topDocs.scoreDocs.length), topDocs.scoreDocs.length);
+          totalHits = topDocs.totalHits;
+        } else
+          array = topDocs.scoreDocs;
       } catch (IOException e) {
         OLogManager.instance().error(this, "Error on fetching document by query '%s' to Lucene index", e, query);
       }
+      if (array.length == 0)
+        // THE NEW SEARCHER HAS FEWER HITS THAN WERE ALREADY RETURNED
+        throw new NoSuchElementException();
+    }
+
+    /**
+     * Starts the search of the next page in background once the consumer is half way through the current one, so the search
+     * overlaps with the loading of the records. Skipped if the hits collected so far already cover the SKIP plus LIMIT of the
+     * query.
+     */
+    private void prefetch() {
+      if (!prefetch || prefetched != null || localIndex != array.length / 2)
+        return;
+
+      final int collected = index - localIndex + array.length;
+      final int limit = queryContext.getLimit();
+      if (collected >= totalHits || (limit > 0 && collected >= queryContext.getSkip() + limit))
+        return;
+
+      final ScoreDoc after = array[array.length - 1];
+      final int previousPageSize = pageSize;
+      final int size = nextPageSize();
+      final Prefetch prefetch = new Prefetch(new Callable<TopDocs>() {
+        @Override
+        public TopDocs call() throws Exception {
+          return searchAfter(after, size);
+        }
+      });
+      try {
+        PREFETCHERS.execute(prefetch);
+        prefetched = prefetch;
+      } catch (RejectedExecutionException e) {
+        // TOO MANY PREFETCHES IN PROGRESS: THE PAGE WILL BE SEARCHED WHEN NEEDED, WITH THE SAME SIZE
+        pageSize = previousPageSize;
+      }
+    }
 
+    /**
+     * Grows the page size geometrically: a deep iteration runs a logarithmic number of searches instead of a linear one.
+     */
+    private int nextPageSize() {
+      pageSize = (int) Math.min(maxPageSize, (long) pageSize * PAGE_GROWTH);
+      return pageSize;
     }
 
     @Override
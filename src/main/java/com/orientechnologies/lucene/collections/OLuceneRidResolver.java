@@ -0,0 +1,98 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.collections;
+
+import com.orientechnologies.lucene.manager.OLuceneIndexManagerAbstract;
+import com.orientechnologies.orient.core.id.OContextualRecordId;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Resolves the hits of a searcher to RIDs by the cluster id and position doc values, without loading the stored fields.
+ * Segments written before the doc values were introduced have none: their hits resolve to null and the caller falls back to
+ * the stored RID. The documents written since only index the RID, for the deletes by term, without storing it.
+ */
+public class OLuceneRidResolver {
+
+  private final List<AtomicReaderContext> leaves;
+  private final NumericDocValues[]        clusters;
+  private final NumericDocValues[]        positions;
+  private final Bits[]                    docsWithRid;
+  private final boolean[]                 loaded;
+
+  public OLuceneRidResolver(IndexSearcher searcher) {
+    this(searcher.getIndexReader());
+  }
+
+  public OLuceneRidResolver(IndexReader reader) {
+    this.leaves = reader.leaves();
+    this.clusters = new NumericDocValues[leaves.size()];
+    this.positions = new NumericDocValues[leaves.size()];
+    this.docsWithRid = new Bits[leaves.size()];
+    this.loaded = new boolean[leaves.size()];
+  }
+
+  /**
+   * Resolves a page of hits, leaving null the ones without doc values.
+   */
+  public OContextualRecordId[] resolve(ScoreDoc[] hits) throws IOException {
+    final OContextualRecordId[] rids = new OContextualRecordId[hits.length];
+    for (int i = 0; i < hits.length; i++) {
+      rids[i] = resolve(hits[i].doc);
+    }
+    return rids;
+  }
+
+  public OContextualRecordId resolve(int doc) throws IOException {
+    if (leaves.isEmpty())
+      return null;
+
+    final int leaf = ReaderUtil.subIndex(doc, leaves);
+    if (!loaded[leaf]) {
+      final AtomicReader reader = leaves.get(leaf).reader();
+      clusters[leaf] = reader.getNumericDocValues(OLuceneIndexManagerAbstract.RID_CLUSTER);
+      positions[leaf] = reader.getNumericDocValues(OLuceneIndexManagerAbstract.RID_POSITION);
+      // SEGMENTS MERGED FROM OLD AND NEW ONES HAVE DOCUMENTS WITHOUT VALUES
+      docsWithRid[leaf] = reader.getDocsWithField(OLuceneIndexManagerAbstract.RID_CLUSTER);
+      loaded[leaf] = true;
+    }
+
+    if (clusters[leaf] == null || positions[leaf] == null)
+      return null;
+
+    final int segmentDoc = doc - leaves.get(leaf).docBase;
+    if (docsWithRid[leaf] != null && !docsWithRid[leaf].get(segmentDoc))
+      return null;
+
+    // BUILT FROM THE VALUES, NOT FORMATTED AND PARSED BACK
+    final OContextualRecordId rid = new OContextualRecordId((String) null);
+    rid.clusterId = (int) clusters[leaf].get(segmentDoc);
+    rid.clusterPosition = positions[leaf].get(segmentDoc);
+    return rid;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+package com.orientechnologies.lucene.directory;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.apache.lucene.store.Directory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the directory factories. The factory of an index is chosen by the "directory" field of its metadata, then by the
+ * global default, which can be set with the "directory" parameter of the plugin. Unknown or failing factories fall back to NIO.
+ */
+public class OLuceneDirectoryFactories {
+
+  public static final String                               DIRECTORY = "directory";
+
+  private static final Map<String, OLuceneDirectoryFactory> FACTORIES = new ConcurrentHashMap<String, OLuceneDirectoryFactory>();
+  private static volatile String                           defaultName = ONIOFSDirectoryFactory.NAME;
+
+  static {
+    registerFactory(new ONIOFSDirectoryFactory());
+    registerFactory(new OMMapDirectoryFactory());
+    registerFactory(new ONRTCachingDirectoryFactory());
+
+    final Iterator<OLuceneDirectoryFactory> it = ServiceLoader.load(OLuceneDirectoryFactory.class,
+        OLuceneDirectoryFactories.class.getClassLoader()).iterator();
+    while (it.hasNext()) {
+      try {
+        registerFactory(it.next());
+      } catch (ServiceConfigurationError e) {
+        OLogManager.instance().error(null, "Cannot load Lucene directory factory", e);
+      }
+    }
+  }
+
+  private OLuceneDirectoryFactories() {
+  }
+
+  public static void registerFactory(OLuceneDirectoryFactory factory) {
+    FACTORIES.put(factory.getName().toLowerCase(), factory);
+  }
+
+  public static String getDefaultName() {
+    return defaultName;
+  }
+
+  public static void setDefaultName(String name) {
+    defaultName = name.toLowerCase();
+  }
+
+  /**
+   * Returns the name of the factory selected by the metadata, or the default one.
+   */
+  public static String getName(ODocument metadata) {
+    final Object name = metadata != null ? metadata.field(DIRECTORY) : null;
+    return name != null ? name.toString().toLowerCase() : defaultName;
+  }
+
+  /**
+   * Opens the directory with the factory of the given name, falling back to NIO.
+   */
+  public static Directory open(String name, File path, ODocument metadata) throws IOException {
+    final OLuceneDirectoryFactory factory = FACTORIES.get(name);
+    if (factory == null) {
+      OLogManager.instance().warn(null, "Unknown Lucene directory '%s', using '%s'", name, ONIOFSDirectoryFactory.NAME);
+    } else if (!ONIOFSDirectoryFactory.NAME.equals(factory.getName())) {
+      try {
+        return factory.createDirectory(path, metadata);
+      } catch (IOException e) {
+        OLogManager.instance().warn(null, "Cannot open Lucene directory '%s' in '%s', using '%s': %s", name, path,
+            ONIOFSDirectoryFactory.NAME, e.getMessage());
+      }
+    }
+    return FACTORIES.get(ONIOFSDirectoryFactory.NAME).createDirectory(path, metadata);
+  }
+}
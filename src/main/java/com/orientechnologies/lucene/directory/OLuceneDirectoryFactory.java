@@ -0,0 +1,42 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+package com.orientechnologies.lucene.directory;
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.apache.lucene.store.Directory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Opens the Lucene directories of the indexes stored on disk. Implementations are registered in
+ * {@link OLuceneDirectoryFactories}, also through the service loader, and selected by name in the "directory" field of the index
+ * metadata.
+ */
+public interface OLuceneDirectoryFactory {
+
+  String getName();
+
+  /**
+   * @param path
+   *          folder of the index
+   * @param metadata
+   *          metadata of the index, can be null
+   */
+  Directory createDirectory(File path, ODocument metadata) throws IOException;
+}
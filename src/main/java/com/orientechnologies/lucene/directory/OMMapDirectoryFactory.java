@@ -0,0 +1,47 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+package com.orientechnologies.lucene.directory;
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.Constants;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Memory maps the index files, saving a system call per read. Meant for read-heavy indexes on 64-bit JVMs, where the address
+ * space is not a constraint.
+ */
+public class OMMapDirectoryFactory implements OLuceneDirectoryFactory {
+
+  public static final String NAME = "mmap";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public Directory createDirectory(File path, ODocument metadata) throws IOException {
+    if (!Constants.JRE_IS_64BIT)
+      throw new IOException("Memory mapped Lucene directories require a 64-bit JVM");
+    return new MMapDirectory(path);
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+package com.orientechnologies.lucene.directory;
+
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Keeps the small segments flushed for the near real time searchers in RAM until they are merged or committed, on top of the
+ * best directory of the platform: memory mapped on 64-bit JVMs, NIO otherwise.
+ */
+public class ONRTCachingDirectoryFactory implements OLuceneDirectoryFactory {
+
+  public static final String NAME                        = "nrtcaching";
+  public static final String NRT_CACHE_MAX_MERGE_SIZE_MB = "nrtCacheMaxMergeSizeMB";
+  public static final String NRT_CACHE_MAX_CACHED_MB     = "nrtCacheMaxCachedMB";
+  public static final double DEFAULT_MAX_MERGE_SIZE_MB   = 5;
+  public static final double DEFAULT_MAX_CACHED_MB       = 60;
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public Directory createDirectory(File path, ODocument metadata) throws IOException {
+    return new NRTCachingDirectory(FSDirectory.open(path), getValue(metadata, NRT_CACHE_MAX_MERGE_SIZE_MB,
+        DEFAULT_MAX_MERGE_SIZE_MB), getValue(metadata, NRT_CACHE_MAX_CACHED_MB, DEFAULT_MAX_CACHED_MB));
+  }
+
+  private static double getValue(ODocument metadata, String key, double defaultValue) {
+    final Object value = metadata != null ? metadata.field(key) : null;
+    return value != null ? (Double) OType.convert(value, Double.class) : defaultValue;
+  }
+}
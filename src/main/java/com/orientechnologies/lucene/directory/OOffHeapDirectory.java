@@ -0,0 +1,336 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+package com.orientechnologies.lucene.directory;
+
+import org.apache.lucene.store.BaseDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory directory storing the files in direct buffers, out of the Java heap, in slabs of fixed size. The memory allocated is
+ * accounted per directory and globally, and both can be capped: a write past a cap fails with an IOException. The memory of a
+ * deleted file is reclaimed when its buffers are garbage collected, since they can still be read by open searchers.
+ */
+public class OOffHeapDirectory extends BaseDirectory {
+
+  public static final String      OFF_HEAP_MAX_MB   = "offHeapMaxMB";
+
+  private static final int        SLAB_SHIFT        = 15;
+  private static final int        SLAB_SIZE         = 1 << SLAB_SHIFT;
+  private static final int        SLAB_MASK         = SLAB_SIZE - 1;
+
+  private static final AtomicLong GLOBAL_ALLOCATED  = new AtomicLong();
+  private static volatile long    globalMaxBytes;
+
+  private final Map<String, OffHeapFile> files      = new ConcurrentHashMap<String, OffHeapFile>();
+  private final AtomicLong        allocated         = new AtomicLong();
+  private final long              maxBytes;
+
+  /**
+   * @param maxBytes
+   *          maximum memory the directory can allocate, 0 for no limit other than the global one
+   */
+  public OOffHeapDirectory(long maxBytes) {
+    this.maxBytes = maxBytes;
+    setLockFactory(new SingleInstanceLockFactory());
+  }
+
+  /**
+   * Caps the memory allocated by all the off-heap directories, 0 for no limit.
+   */
+  public static void setGlobalMaxBytes(long maxBytes) {
+    globalMaxBytes = maxBytes;
+  }
+
+  public static long getGlobalAllocated() {
+    return GLOBAL_ALLOCATED.get();
+  }
+
+  public long getAllocated() {
+    return allocated.get();
+  }
+
+  @Override
+  public String[] listAll() {
+    ensureOpen();
+    return files.keySet().toArray(new String[0]);
+  }
+
+  @Override
+  public boolean fileExists(String name) {
+    ensureOpen();
+    return files.containsKey(name);
+  }
+
+  @Override
+  public void deleteFile(String name) throws IOException {
+    ensureOpen();
+    final OffHeapFile file = files.remove(name);
+    if (file == null)
+      throw new FileNotFoundException(name);
+    release(file.getCapacity());
+  }
+
+  @Override
+  public long fileLength(String name) throws IOException {
+    ensureOpen();
+    return getFile(name).length;
+  }
+
+  @Override
+  public IndexOutput createOutput(String name, IOContext context) throws IOException {
+    ensureOpen();
+    final OffHeapFile file = new OffHeapFile();
+    final OffHeapFile previous = files.put(name, file);
+    if (previous != null)
+      release(previous.getCapacity());
+    return new OffHeapOutput(name, file);
+  }
+
+  @Override
+  public void sync(Collection<String> names) {
+  }
+
+  @Override
+  public IndexInput openInput(String name, IOContext context) throws IOException {
+    ensureOpen();
+    return new OffHeapInput(name, getFile(name));
+  }
+
+  @Override
+  public void close() {
+    isOpen = false;
+    for (OffHeapFile file : files.values())
+      release(file.getCapacity());
+    files.clear();
+  }
+
+  private OffHeapFile getFile(String name) throws FileNotFoundException {
+    final OffHeapFile file = files.get(name);
+    if (file == null)
+      throw new FileNotFoundException(name);
+    return file;
+  }
+
+  private ByteBuffer allocate() throws IOException {
+    final long total = allocated.addAndGet(SLAB_SIZE);
+    final long globalTotal = GLOBAL_ALLOCATED.addAndGet(SLAB_SIZE);
+    final long globalMax = globalMaxBytes;
+    if ((maxBytes > 0 && total > maxBytes) || (globalMax > 0 && globalTotal > globalMax)) {
+      release(SLAB_SIZE);
+      throw new IOException("Off-heap Lucene directory is full: allocated " + (total - SLAB_SIZE) + " bytes of " + maxBytes
+          + ", globally " + (globalTotal - SLAB_SIZE) + " of " + globalMax);
+    }
+    return ByteBuffer.allocateDirect(SLAB_SIZE);
+  }
+
+  private void release(long bytes) {
+    allocated.addAndGet(-bytes);
+    GLOBAL_ALLOCATED.addAndGet(-bytes);
+  }
+
+  /**
+   * Written once by a single output, then only read.
+   */
+  private static final class OffHeapFile {
+    private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+    private volatile ByteBuffer[]  readSlabs;
+    private volatile long          length;
+
+    private synchronized long getCapacity() {
+      return (long) slabs.size() * SLAB_SIZE;
+    }
+
+    private synchronized ByteBuffer[] getSlabs() {
+      if (readSlabs == null || readSlabs.length != slabs.size())
+        readSlabs = slabs.toArray(new ByteBuffer[slabs.size()]);
+      return readSlabs;
+    }
+  }
+
+  private final class OffHeapOutput extends IndexOutput {
+    private final String      name;
+    private final OffHeapFile file;
+    private ByteBuffer        current;
+    private long              position;
+
+    private OffHeapOutput(String name, OffHeapFile file) {
+      this.name = name;
+      this.file = file;
+    }
+
+    @Override
+    public void writeByte(byte b) throws IOException {
+      ensureCapacity();
+      current.put(b);
+      position++;
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int offset, int length) throws IOException {
+      while (length > 0) {
+        ensureCapacity();
+        final int chunk = Math.min(length, current.remaining());
+        current.put(b, offset, chunk);
+        offset += chunk;
+        length -= chunk;
+        position += chunk;
+      }
+    }
+
+    private void ensureCapacity() throws IOException {
+      if (current != null && current.hasRemaining())
+        return;
+
+      final int slab = (int) (position >>> SLAB_SHIFT);
+      synchronized (file) {
+        if (slab == file.slabs.size())
+          file.slabs.add(allocate());
+        current = file.slabs.get(slab).duplicate();
+      }
+      current.position((int) (position & SLAB_MASK));
+    }
+
+    @Override
+    public void flush() {
+      if (position > file.length)
+        file.length = position;
+    }
+
+    @Override
+    public void close() {
+      flush();
+    }
+
+    @Override
+    public long getFilePointer() {
+      return position;
+    }
+
+    @Override
+    @Deprecated
+    public void seek(long pos) {
+      flush();
+      position = pos;
+      current = null;
+    }
+
+    @Override
+    public long length() {
+      return Math.max(position, file.length);
+    }
+
+    @Override
+    public String toString() {
+      return "OffHeapOutput(" + name + ")";
+    }
+  }
+
+  private static final class OffHeapInput extends IndexInput {
+    private final ByteBuffer[] slabs;
+    private final long         length;
+    private ByteBuffer         current;
+    private int                slab = -1;
+    private long               position;
+
+    private OffHeapInput(String name, OffHeapFile file) {
+      super("OffHeapInput(" + name + ")");
+      this.slabs = file.getSlabs();
+      this.length = file.length;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+      if (position >= length)
+        throw new EOFException("Read past EOF: " + this);
+      final byte b = current().get();
+      position++;
+      return b;
+    }
+
+    @Override
+    public void readBytes(byte[] b, int offset, int len) throws IOException {
+      if (position + len > length)
+        throw new EOFException("Read past EOF: " + this);
+      while (len > 0) {
+        final ByteBuffer buffer = current();
+        final int chunk = Math.min(len, buffer.remaining());
+        buffer.get(b, offset, chunk);
+        offset += chunk;
+        len -= chunk;
+        position += chunk;
+      }
+    }
+
+    /**
+     * Returns the slab positioned on the current file pointer.
+     */
+    private ByteBuffer current() {
+      if (current == null || !current.hasRemaining()) {
+        slab = (int) (position >>> SLAB_SHIFT);
+        current = slabs[slab].duplicate();
+        current.position((int) (position & SLAB_MASK));
+      }
+      return current;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public long getFilePointer() {
+      return position;
+    }
+
+    @Override
+    public void seek(long pos) {
+      position = pos;
+      if (current != null && (pos >>> SLAB_SHIFT) == slab)
+        current.position((int) (pos & SLAB_MASK));
+      else
+        current = null;
+    }
+
+    @Override
+    public long length() {
+      return length;
+    }
+
+    @Override
+    public OffHeapInput clone() {
+      final OffHeapInput clone = (OffHeapInput) super.clone();
+      clone.current = null;
+      clone.slab = -1;
+      return clone;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Orient Technologies.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.orientechnologies.lucene.functions;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.lucene.collections.OFullTextCompositeKey;
+import com.orientechnologies.orient.core.command.OCommandContext;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.sql.functions.OSQLFunctionAbstract;
+
+import java.util.Arrays;
+
+/**
+ * Counts the hits of a Lucene query without iterating them: <code>select lucene_count('City.name', 'London')</code>. The hits
+ * are only counted by the searcher, no record id is resolved and no record is loaded, where a
+ * <code>select count(*) ... LUCENE</code> loads every matching record to evaluate the projection.
+ */
+public class OLuceneCountFunction extends OSQLFunctionAbstract {
+
+  public static final String NAME = "lucene_count";
+
+  public OLuceneCountFunction() {
+    super(NAME, 2, 2);
+  }
+
+  @Override
+  public Object execute(Object iThis, OIdentifiable iCurrentRecord, Object iCurrentResult, Object[] iParams,
+      OCommandContext iContext) {
+
+    final String indexName = (String) iParams[0];
+    ODatabaseDocument databaseRecord = ODatabaseRecordThreadLocal.INSTANCE.get();
+    final OIndex<?> index = databaseRecord.getMetadata().getIndexManager().getIndex(indexName);
+    if (index == null || !(index.getInternal() instanceof OLuceneIndex))
+      throw new OCommandExecutionException("Lucene index '" + indexName + "' not found");
+
+    return index.count(new OFullTextCompositeKey(Arrays.asList(iParams[1])).setContext(iContext));
+  }
+
+  @Override
+  public String getSyntax() {
+    return "lucene_count(<index>,<query>)";
+  }
+}
@@ -31,6 +31,7 @@ public class OLuceneFunctionsFactory implements OSQLFunctionFactory {
 
   static {
     register(OLuceneNearFunction.NAME, OLuceneNearFunction.class);
+    register(OLuceneCountFunction.NAME, OLuceneCountFunction.class);
   }
 
   @Override
@@ -29,7 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.lucene.index.OLuceneIndexNotUnique;
 import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
@@ -119,13 +119,17 @@ public class OLuceneClassIndexManager extends ODocumentHookAbstract {
     if (cls == null)
       return;
 
-    final Collection<OIndex<?>> indexes = (Collection<OIndex<?>>) getDatabase().getMetadata().getIndexManager().getIndexes();
+    final ODatabaseDocumentInternal database = getDatabase();
+    final List<OLuceneClassIndexRegistry.Entry> indexes = OLuceneClassIndexRegistry.getIndexes(database, cls);
 
     if (!indexes.isEmpty()) {
       final Set<String> dirtyFields = new HashSet<String>(Arrays.asList(iDocument.getDirtyFields()));
       if (!dirtyFields.isEmpty()) {
-        for (final OIndex<?> index : indexes) {
-          if (index.getInternal() instanceof OLuceneIndex && index.getConfiguration().field("metadata") != null) {
+        for (final OLuceneClassIndexRegistry.Entry entry : indexes) {
+          if (entry.isAffectedBy(dirtyFields)) {
+            final OIndex<?> index = entry.getIndex(database);
+            if (index == null)
+              continue;
             if (index.getDefinition() instanceof OCompositeIndexDefinition)
               processCompositeIndexUpdate(index, dirtyFields, iDocument);
             else
@@ -244,6 +248,9 @@ public class OLuceneClassIndexManager extends ODocumentHookAbstract {
           final Object origValue = indexDefinition.createValue(origValues);
           final Object newValue = indexDefinition.getDocumentValueToIndex(iRecord);
 
+          if (updateIndexKey(index, iRecord, origValue, newValue))
+            return;
+
           if (origValue != null)
             index.remove(origValue, iRecord);
 
@@ -350,6 +357,9 @@ public class OLuceneClassIndexManager extends ODocumentHookAbstract {
         }
       }
     } else {
+      if (updateIndexKey(index, iRecord, origValue, newValue))
+        return;
+
       deleteIndexKey(index, iRecord, origValue);
 
       if (newValue instanceof Collection) {
@@ -362,6 +372,26 @@ public class OLuceneClassIndexManager extends ODocumentHookAbstract {
     }
   }
 
+  /**
+   * Collapses the remove+put of a single valued key into one update by RID, when the Lucene index supports it. Inside a
+   * transaction the operations go through the index snapshot, that collapses them on commit.
+   */
+  private static boolean updateIndexKey(final OIndex<?> index, final ODocument iRecord, final Object origValue,
+      final Object newValue) {
+    if (origValue == null || newValue == null || origValue instanceof Collection || newValue instanceof Collection)
+      return false;
+
+    if (!(index.getInternal() instanceof OLuceneIndexNotUnique))
+      return false;
+
+    final OLuceneIndexNotUnique luceneIndex = (OLuceneIndexNotUnique) index.getInternal();
+    if (!luceneIndex.supportsUpdate() || ODatabaseRecordThreadLocal.INSTANCE.get().getTransaction().isActive())
+      return false;
+
+    luceneIndex.update(newValue, iRecord.placeholder());
+    return true;
+  }
+
   private static boolean processCompositeIndexDelete(final OIndex<?> index, final Set<String> dirtyFields, final ODocument iRecord) {
     final OCompositeIndexDefinition indexDefinition = (OCompositeIndexDefinition) index.getDefinition();
 
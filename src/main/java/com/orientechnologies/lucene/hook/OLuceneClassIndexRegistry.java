@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Orient Technologies.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.orientechnologies.lucene.hook;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
+import com.orientechnologies.orient.core.db.ODatabaseInternal;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.storage.OStorage;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches, per database and class, the names of the Lucene indexes defined on the class and its superclasses together with their
+ * indexed fields, so a record update only looks at the indexes touched by its dirty fields. The cache is shared by all the
+ * connections to a database, so it holds no index instance: those are bound to the connection, and its transaction, that
+ * loaded them. The caches are keyed by storage URL and bound to the storage instance, so a database dropped and created again
+ * under the same URL starts from scratch. The cache of a database is dropped when a Lucene index is created or deleted, when a
+ * class is created or dropped, when the database is dropped and when the schema version changes.
+ */
+public class OLuceneClassIndexRegistry {
+
+  // BY STORAGE URL
+  private static final ConcurrentMap<String, Snapshot> SNAPSHOTS = new ConcurrentHashMap<String, Snapshot>();
+
+  /**
+   * Returns the Lucene indexes of the class, including the ones defined on its superclasses.
+   */
+  public static List<Entry> getIndexes(final ODatabaseDocumentInternal database, final OClass cls) {
+    final int schemaVersion = database.getMetadata().getSchema().getVersion();
+    final OStorage storage = database.getStorage().getUnderlying();
+
+    Snapshot snapshot = SNAPSHOTS.get(database.getURL());
+    if (snapshot == null || snapshot.schemaVersion != schemaVersion || snapshot.storage.get() != storage) {
+      snapshot = new Snapshot(storage, schemaVersion);
+      SNAPSHOTS.put(database.getURL(), snapshot);
+    }
+
+    List<Entry> entries = snapshot.classes.get(cls.getName());
+    if (entries == null) {
+      entries = new ArrayList<Entry>();
+      collectIndexes(cls, entries, new HashSet<String>());
+      entries = Collections.unmodifiableList(entries);
+      snapshot.classes.put(cls.getName(), entries);
+    }
+    return entries;
+  }
+
+  /**
+   * Collects the Lucene indexes defined on the class and on all its superclasses, once each.
+   */
+  private static void collectIndexes(final OClass cls, final List<Entry> entries, final Set<String> visited) {
+    if (!visited.add(cls.getName()))
+      return;
+
+    for (OIndex<?> index : cls.getClassIndexes()) {
+      if (index.getInternal() instanceof OLuceneIndex && index.getConfiguration().field("metadata") != null)
+        entries.add(new Entry(index));
+    }
+    for (OClass superClass : cls.getSuperClasses())
+      collectIndexes(superClass, entries, visited);
+  }
+
+  public static void invalidate(final ODatabaseInternal<?> database) {
+    if (database != null && database.getURL() != null)
+      SNAPSHOTS.remove(database.getURL());
+  }
+
+  public static final class Entry {
+    private final String      indexName;
+    private final Set<String> fields;
+
+    private Entry(OIndex<?> index) {
+      this.indexName = index.getName();
+      this.fields = Collections.unmodifiableSet(new HashSet<String>(index.getDefinition().getFields()));
+    }
+
+    public String getIndexName() {
+      return indexName;
+    }
+
+    /**
+     * Returns the index as seen by the database, so the writes join its transaction. Null if the index was dropped meanwhile.
+     */
+    public OIndex<?> getIndex(final ODatabaseDocumentInternal database) {
+      return database.getMetadata().getIndexManager().getIndex(indexName);
+    }
+
+    /**
+     * Returns true if at least one of the indexed fields is dirty.
+     */
+    public boolean isAffectedBy(final Set<String> dirtyFields) {
+      return !Collections.disjoint(fields, dirtyFields);
+    }
+  }
+
+  private static final class Snapshot {
+    private final WeakReference<OStorage>            storage;
+    private final int                                schemaVersion;
+    private final ConcurrentMap<String, List<Entry>> classes = new ConcurrentHashMap<String, List<Entry>>();
+
+    private Snapshot(OStorage storage, int schemaVersion) {
+      this.storage = new WeakReference<OStorage>(storage);
+      this.schemaVersion = schemaVersion;
+    }
+  }
+}
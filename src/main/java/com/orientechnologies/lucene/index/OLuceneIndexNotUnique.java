@@ -20,21 +20,43 @@ import com.orientechnologies.common.listener.OProgressListener;
 import com.orientechnologies.lucene.LuceneTxOperations;
 import com.orientechnologies.lucene.OLuceneIndex;
 import com.orientechnologies.lucene.OLuceneIndexEngine;
+import com.orientechnologies.lucene.collections.LuceneResultSet;
+import com.orientechnologies.lucene.hook.OLuceneClassIndexRegistry;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.index.OIndexDefinition;
+import com.orientechnologies.orient.core.index.OIndexException;
 import com.orientechnologies.orient.core.index.OIndexMultiValues;
 import com.orientechnologies.orient.core.index.OIndexNotUnique;
+import com.orientechnologies.orient.core.iterator.ORecordIteratorCluster;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import org.apache.lucene.search.IndexSearcher;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class OLuceneIndexNotUnique extends OIndexNotUnique implements OLuceneIndex {
 
+  public static final String REBUILD_THREADS        = "rebuildThreads";
+  private static final long  REBUILD_MIN_RANGE      = 10000;
+  private static final long  REBUILD_PROGRESS_EVERY = 1000;
+
   public OLuceneIndexNotUnique(String name, String typeId, String algorithm, OLuceneIndexEngine engine,
       String valueContainerAlgorithm, ODocument metadata) {
     super(name, typeId, algorithm, engine, valueContainerAlgorithm, metadata);
@@ -48,7 +70,11 @@ public class OLuceneIndexNotUnique extends OIndexNotUnique implements OLuceneInd
     OLuceneIndexEngine engine = (OLuceneIndexEngine) indexEngine;
     engine.setManagedIndex(this);
     engine.setIndexName(name);
-    return super.create(name, indexDefinition, clusterIndexName, clustersToIndex, rebuild, progressListener);
+    try {
+      return super.create(name, indexDefinition, clusterIndexName, clustersToIndex, rebuild, progressListener);
+    } finally {
+      OLuceneClassIndexRegistry.invalidate(getDatabase());
+    }
   }
 
   @Override
@@ -57,9 +83,16 @@ public class OLuceneIndexNotUnique extends OIndexNotUnique implements OLuceneInd
 
     key = getCollatingValue(key);
 
+    if (isAsync()) {
+      checkForKeyType(key);
+      getIndexEngine().putAsync(key, iSingleValue);
+      return this;
+    }
+
+    getIndexEngine().drainAsyncIndexing();
     modificationLock.requestModificationLock();
     try {
-      acquireExclusiveLock();
+      final boolean concurrent = acquireWriteLock();
       try {
         checkForKeyType(key);
         Set<OIdentifiable> values = new HashSet<OIdentifiable>();
@@ -68,34 +101,134 @@ public class OLuceneIndexNotUnique extends OIndexNotUnique implements OLuceneInd
         return this;
 
       } finally {
-        releaseExclusiveLock();
+        releaseWriteLock(concurrent);
       }
     } finally {
       modificationLock.releaseModificationLock();
     }
   }
 
+  /**
+   * Replaces the entries of the record with the new key. Only valid if {@link #supportsUpdate()} returns true, because the
+   * old entries are found by RID.
+   */
+  public OLuceneIndexNotUnique update(Object key, OIdentifiable value) {
+    checkForRebuild();
+
+    key = getCollatingValue(key);
+
+    if (isAsync()) {
+      checkForKeyType(key);
+      getIndexEngine().updateAsync(key, value);
+      return this;
+    }
+
+    getIndexEngine().drainAsyncIndexing();
+    modificationLock.requestModificationLock();
+    try {
+      final boolean concurrent = acquireWriteLock();
+      try {
+        checkForKeyType(key);
+        getIndexEngine().update(key, value);
+        return this;
+
+      } finally {
+        releaseWriteLock(concurrent);
+      }
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  public boolean supportsUpdate() {
+    return getIndexEngine().supportsUpdate();
+  }
+
   @Override
   protected void commitSnapshot(Map<Object, Object> snapshot) {
+    // THE WRITES QUEUED OUT OF TRANSACTION BEFORE THE COMMIT GO FIRST, OR THEY WOULD UNDO IT
+    getIndexEngine().drainAsyncIndexing();
+
+    final Set<OIdentifiable> updated = collectUpdates(snapshot);
+    final Map<Object, Set<OIdentifiable>> removed = new HashMap<Object, Set<OIdentifiable>>();
+    final Map<Object, Set<OIdentifiable>> added = new HashMap<Object, Set<OIdentifiable>>();
+
     for (Map.Entry<Object, Object> snapshotEntry : snapshot.entrySet()) {
       Object key = snapshotEntry.getKey();
       LuceneTxOperations operations = (LuceneTxOperations) snapshotEntry.getValue();
       checkForKeyType(key);
 
+      if (updated.isEmpty()) {
+        if (!operations.removed.isEmpty())
+          removed.put(key, operations.removed);
+        if (!operations.added.isEmpty())
+          added.put(key, operations.added);
+        continue;
+      }
+
+      final Set<OIdentifiable> keyRemoved = new HashSet<OIdentifiable>();
       for (OIdentifiable oIdentifiable : operations.removed) {
-        ((OLuceneIndexEngine) indexEngine).remove(key, oIdentifiable);
+        if (!updated.contains(oIdentifiable))
+          keyRemoved.add(oIdentifiable);
       }
+      if (!keyRemoved.isEmpty())
+        removed.put(key, keyRemoved);
 
+      final Set<OIdentifiable> keyAdded = new HashSet<OIdentifiable>();
+      for (OIdentifiable oIdentifiable : operations.added) {
+        if (!updated.contains(oIdentifiable))
+          keyAdded.add(oIdentifiable);
+      }
+      if (!keyAdded.isEmpty())
+        added.put(key, keyAdded);
     }
-    for (Map.Entry<Object, Object> snapshotEntry : snapshot.entrySet()) {
-      Object key = snapshotEntry.getKey();
-      LuceneTxOperations operations = (LuceneTxOperations) snapshotEntry.getValue();
-      checkForKeyType(key);
 
-      indexEngine.put(key, operations.added);
+    // ONE DELETE AND ONE ADD CALL ON THE INDEX WRITER FOR THE WHOLE TRANSACTION, NOT INTERLEAVED WITH THE INDEXER THREADS
+    final OLuceneIndexEngine engine = getIndexEngine();
+    engine.acquireWriteLock(true);
+    try {
+      if (!removed.isEmpty())
+        engine.removeBatch(removed);
+
+      if (!updated.isEmpty()) {
+        for (Map.Entry<Object, Object> snapshotEntry : snapshot.entrySet()) {
+          for (OIdentifiable oIdentifiable : ((LuceneTxOperations) snapshotEntry.getValue()).added) {
+            if (updated.contains(oIdentifiable))
+              engine.update(snapshotEntry.getKey(), oIdentifiable);
+          }
+        }
+      }
+
+      if (!added.isEmpty())
+        engine.putBatch(added);
+    } finally {
+      engine.releaseWriteLock(true);
+    }
+  }
 
+  /**
+   * Returns the records removed and added back exactly once in the transaction: their remove+put collapses to a single update
+   * by RID.
+   */
+  protected Set<OIdentifiable> collectUpdates(Map<Object, Object> snapshot) {
+    if (!supportsUpdate())
+      return Collections.emptySet();
+
+    final Set<OIdentifiable> removed = new HashSet<OIdentifiable>();
+    final Set<OIdentifiable> added = new HashSet<OIdentifiable>();
+    final Set<OIdentifiable> addedMoreThanOnce = new HashSet<OIdentifiable>();
+    for (Object value : snapshot.values()) {
+      LuceneTxOperations operations = (LuceneTxOperations) value;
+      removed.addAll(operations.removed);
+      for (OIdentifiable oIdentifiable : operations.added) {
+        if (!added.add(oIdentifiable))
+          addedMoreThanOnce.add(oIdentifiable);
+      }
     }
 
+    added.retainAll(removed);
+    added.removeAll(addedMoreThanOnce);
+    return added;
   }
 
   @Override
@@ -119,6 +252,20 @@ public class OLuceneIndexNotUnique extends OIndexNotUnique implements OLuceneInd
     }
   }
 
+  /**
+   * Counts the hits of the query without collecting nor loading them, and gives the searcher back right away.
+   */
+  @Override
+  public long count(Object key) {
+    final Set<OIdentifiable> values = get(key);
+    try {
+      return values.size();
+    } finally {
+      if (values instanceof LuceneResultSet)
+        ((LuceneResultSet) values).close();
+    }
+  }
+
   @Override
   protected void removeFromSnapshot(Object key, OIdentifiable value, Map<Object, Object> snapshot) {
     key = getCollatingValue(key);
@@ -157,9 +304,16 @@ public class OLuceneIndexNotUnique extends OIndexNotUnique implements OLuceneInd
     checkForRebuild();
 
     key = getCollatingValue(key);
+
+    if (isAsync()) {
+      getIndexEngine().removeAsync(key, value);
+      return true;
+    }
+
+    getIndexEngine().drainAsyncIndexing();
     modificationLock.requestModificationLock();
     try {
-      acquireExclusiveLock();
+      final boolean concurrent = acquireWriteLock();
       try {
 
         if (indexEngine instanceof OLuceneIndexEngine) {
@@ -169,7 +323,7 @@ public class OLuceneIndexNotUnique extends OIndexNotUnique implements OLuceneInd
         }
 
       } finally {
-        releaseExclusiveLock();
+        releaseWriteLock(concurrent);
       }
     } finally {
       modificationLock.releaseModificationLock();
@@ -180,9 +334,14 @@ public class OLuceneIndexNotUnique extends OIndexNotUnique implements OLuceneInd
   public long rebuild(OProgressListener iProgressListener) {
 
     OLuceneIndexEngine engine = (OLuceneIndexEngine) indexEngine;
+    final int threads = getRebuildThreads();
     try {
       engine.setRebuilding(true);
-      super.rebuild(iProgressListener);
+      if (threads > 1) {
+        rebuildInParallel(iProgressListener, threads);
+      } else {
+        super.rebuild(iProgressListener);
+      }
     } finally {
       engine.setRebuilding(false);
 
@@ -192,6 +351,126 @@ public class OLuceneIndexNotUnique extends OIndexNotUnique implements OLuceneInd
 
   }
 
+  /**
+   * Rebuilds the index splitting the clusters in position ranges indexed by a pool of worker threads. Every worker reads the
+   * records through its own copy of the database and feeds the shared IndexWriter; the index is committed once at the end.
+   */
+  protected void rebuildInParallel(final OProgressListener iProgressListener, final int threads) {
+    final ODatabaseDocumentTx database = (ODatabaseDocumentTx) ODatabaseRecordThreadLocal.INSTANCE.get();
+
+    modificationLock.requestExclusiveLock();
+    try {
+      acquireExclusiveLock();
+      try {
+        try {
+          indexEngine.clear();
+        } catch (Exception e) {
+          // IGNORE EXCEPTION: IF THE REBUILD WAS LAUNCHED IN CASE OF RID INVALID CLEAR ALWAYS GOES IN ERROR
+        }
+
+        long documentTotal = 0;
+        final List<long[]> ranges = new ArrayList<long[]>();
+        for (String clusterName : getClusters()) {
+          final int clusterId = database.getClusterIdByName(clusterName);
+          if (clusterId < 0)
+            continue;
+
+          documentTotal += database.countClusterElements(clusterName);
+          final long[] range = database.getStorage().getClusterDataRange(clusterId);
+          if (range[0] < 0 || range[1] < range[0])
+            continue;
+
+          final long step = Math.max(REBUILD_MIN_RANGE, (range[1] - range[0] + 1) / (threads * 4));
+          for (long from = range[0]; from <= range[1]; from += step) {
+            ranges.add(new long[] { clusterId, from, Math.min(from + step - 1, range[1]) });
+          }
+        }
+
+        final RebuildProgress progress = new RebuildProgress(iProgressListener, documentTotal);
+        if (iProgressListener != null)
+          iProgressListener.onBegin(this, documentTotal, true);
+
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+          final List<Future<?>> results = new ArrayList<Future<?>>(ranges.size());
+          for (final long[] range : ranges) {
+            results.add(workers.submit(new Callable<Void>() {
+              @Override
+              public Void call() throws Exception {
+                indexRange(database, (int) range[0], range[1], range[2], progress);
+                return null;
+              }
+            }));
+          }
+          for (Future<?> result : results) {
+            result.get();
+          }
+        } catch (ExecutionException e) {
+          if (iProgressListener != null)
+            iProgressListener.onCompletition(this, false);
+          throw new OIndexException("Error on rebuilding the index for clusters: " + getClusters(), e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          if (iProgressListener != null)
+            iProgressListener.onCompletition(this, false);
+          throw new OIndexException("Rebuild of the index interrupted", e);
+        } finally {
+          workers.shutdownNow();
+        }
+
+        if (iProgressListener != null)
+          iProgressListener.onCompletition(this, true);
+      } finally {
+        releaseExclusiveLock();
+      }
+    } finally {
+      modificationLock.releaseExclusiveLock();
+      ODatabaseRecordThreadLocal.INSTANCE.set(database);
+    }
+  }
+
+  private void indexRange(final ODatabaseDocumentTx database, final int clusterId, final long from, final long to,
+      final RebuildProgress progress) {
+    final ODatabaseDocumentTx db = database.copy();
+    ODatabaseRecordThreadLocal.INSTANCE.set(db);
+    try {
+      final OIndexDefinition indexDefinition = getDefinition();
+      final ORecordIteratorCluster<ORecord> iterator = new ORecordIteratorCluster<ORecord>(db, db, clusterId, from, to);
+      while (iterator.hasNext()) {
+        final ORecord record = iterator.next();
+        if (record instanceof ODocument) {
+          final ODocument doc = (ODocument) record;
+          final Object fieldValue = indexDefinition.getDocumentValueToIndex(doc);
+
+          if (fieldValue instanceof Collection) {
+            for (final Object fieldValueItem : (Collection<?>) fieldValue) {
+              if (fieldValueItem != null)
+                indexEngine.put(fieldValueItem, Collections.<OIdentifiable> singleton(doc.getIdentity()));
+            }
+          } else if (fieldValue != null) {
+            indexEngine.put(fieldValue, Collections.<OIdentifiable> singleton(doc.getIdentity()));
+          }
+        }
+        progress.increment(this);
+      }
+    } finally {
+      db.close();
+      ODatabaseRecordThreadLocal.INSTANCE.remove();
+    }
+  }
+
+  /**
+   * Returns the worker threads of the rebuild, 1 (sequential) unless set in the metadata of the index.
+   */
+  protected int getRebuildThreads() {
+    final ODocument metadata = getIndexEngine().getIndexMetadata();
+    final Object value = metadata != null ? metadata.field(REBUILD_THREADS) : null;
+    if (value == null)
+      return 1;
+    final Integer threads = (Integer) OType.convert(value, Integer.class);
+    return threads != null ? Math.max(1, threads) : 1;
+  }
+
   @Override
   public Object getCollatingValue(Object key) {
     return key;
@@ -205,6 +484,65 @@ public class OLuceneIndexNotUnique extends OIndexNotUnique implements OLuceneInd
   }
 
 
+  /**
+   * Takes the lock of a single write. In concurrent write mode the writers share the lock and rely on the thread safety of the
+   * IndexWriter, only rebuild and clear are exclusive.
+   */
+  protected boolean acquireWriteLock() {
+    final OLuceneIndexEngine engine = getIndexEngine();
+    final boolean concurrent = engine.isConcurrentWrites();
+    if (concurrent)
+      acquireSharedLock();
+    else
+      acquireExclusiveLock();
+    // THE INDEXER THREADS TAKE ONLY THE ONE OF THE ENGINE
+    engine.acquireWriteLock(!concurrent);
+    return concurrent;
+  }
+
+  protected void releaseWriteLock(boolean concurrent) {
+    getIndexEngine().releaseWriteLock(!concurrent);
+    if (concurrent)
+      releaseSharedLock();
+    else
+      releaseExclusiveLock();
+  }
+
+  /**
+   * Returns true if the writes out of transactions are handed to the indexer threads of the engine. Rebuilds are always
+   * synchronous.
+   */
+  protected boolean isAsync() {
+    final OLuceneIndexEngine engine = getIndexEngine();
+    return engine.isAsync() && !engine.isRebuilding();
+  }
+
+  /**
+   * Counts the records indexed by the workers without contention, notifying the listener every
+   * {@link #REBUILD_PROGRESS_EVERY} records.
+   */
+  private static final class RebuildProgress {
+    private final OProgressListener listener;
+    private final long              total;
+    private final AtomicLong        indexed = new AtomicLong();
+
+    private RebuildProgress(OProgressListener listener, long total) {
+      this.listener = listener;
+      this.total = total;
+    }
+
+    private void increment(Object task) {
+      final long current = indexed.incrementAndGet();
+      if (listener != null && current % REBUILD_PROGRESS_EVERY == 0)
+        listener.onProgress(task, current, total > 0 ? current * 100f / total : 0f);
+    }
+  }
+
+  @Override
+  public Map<String, Object> getMetrics() {
+    return getIndexEngine().getMetrics();
+  }
+
   protected OLuceneIndexEngine getIndexEngine(){
     return (OLuceneIndexEngine) indexEngine;
   }
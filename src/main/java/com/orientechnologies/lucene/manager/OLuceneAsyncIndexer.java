@@ -0,0 +1,263 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.orientechnologies.lucene.manager;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Applies index operations to a Lucene index on a pool of indexer threads, so the analysis cost is paid outside of the record
+ * save. Operations on the same RID always go to the same indexer thread, to keep them in order. Every operation gets a token
+ * the readers can wait on to see their own writes.
+ * <p>
+ * An indexer thread works through its own copy of the database that enqueued the operation, and applies it under the same
+ * write lock of the index as the synchronous writes.
+ */
+public class OLuceneAsyncIndexer {
+
+  public static final String                    ASYNC                      = "asyncIndexing";
+  public static final String                    ASYNC_THREADS              = "asyncIndexingThreads";
+  public static final String                    ASYNC_QUEUE_SIZE           = "asyncIndexingQueueSize";
+  public static final int                       DEFAULT_ASYNC_THREADS      = 2;
+  public static final int                       DEFAULT_ASYNC_QUEUE_SIZE   = 10000;
+
+  private static final Operation                STOP                       = new Operation(null, null, null, null, -1);
+
+  private final OLuceneIndexManagerAbstract     owner;
+  private final List<BlockingQueue<Operation>>  queues;
+  private final List<Thread>                    indexers;
+  private final TreeSet<Long>                   inFlight                   = new TreeSet<Long>();
+  private long                                  lastToken;
+  private boolean                               closed;
+
+  public enum OPERATION {
+    PUT, REMOVE, UPDATE
+  }
+
+  public OLuceneAsyncIndexer(OLuceneIndexManagerAbstract owner, String indexName, int threads, int queueSize) {
+    this.owner = owner;
+    this.queues = new ArrayList<BlockingQueue<Operation>>(threads);
+    this.indexers = new ArrayList<Thread>(threads);
+
+    final int queueSizePerThread = Math.max(1, queueSize / threads);
+    for (int i = 0; i < threads; i++) {
+      final BlockingQueue<Operation> queue = new ArrayBlockingQueue<Operation>(queueSizePerThread);
+      final Thread indexer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          consume(queue);
+        }
+      }, "OrientDB Lucene Indexer " + indexName + " #" + i);
+      indexer.setDaemon(true);
+      queues.add(queue);
+      indexers.add(indexer);
+      indexer.start();
+    }
+  }
+
+  public long put(Object key, OIdentifiable value) {
+    return enqueue(OPERATION.PUT, key, value);
+  }
+
+  public long remove(Object key, OIdentifiable value) {
+    return enqueue(OPERATION.REMOVE, key, value);
+  }
+
+  public long update(Object key, OIdentifiable value) {
+    return enqueue(OPERATION.UPDATE, key, value);
+  }
+
+  /**
+   * Returns the token of the last enqueued operation.
+   */
+  public synchronized long getLastToken() {
+    return lastToken;
+  }
+
+  /**
+   * Returns true if every enqueued operation has been applied.
+   */
+  public synchronized boolean isIdle() {
+    return inFlight.isEmpty();
+  }
+
+  /**
+   * Blocks until all the operations up to the token are applied to the index writer.
+   */
+  public synchronized void waitFor(long token) throws InterruptedException {
+    while (!inFlight.isEmpty() && inFlight.first() <= token) {
+      wait();
+    }
+  }
+
+  /**
+   * Applies the enqueued operations and stops the indexer threads.
+   */
+  public void close() {
+    final long token;
+    synchronized (this) {
+      if (closed)
+        return;
+      closed = true;
+      token = lastToken;
+    }
+
+    try {
+      // NO NEW TOKENS AFTER THIS POINT: WAIT FOR THE ONES ALREADY ISSUED BEFORE STOPPING THE INDEXERS
+      waitFor(token);
+      for (BlockingQueue<Operation> queue : queues) {
+        queue.put(STOP);
+      }
+      for (Thread indexer : indexers) {
+        indexer.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      OLogManager.instance().error(this, "Interrupted while stopping Lucene indexer threads", e);
+    }
+  }
+
+  private long enqueue(OPERATION type, Object key, OIdentifiable value) {
+    final OIdentifiable rid = value.getIdentity();
+    final ODatabaseDocumentInternal database = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+
+    final long token;
+    synchronized (this) {
+      if (!closed) {
+        token = ++lastToken;
+        inFlight.add(token);
+      } else {
+        token = -1;
+      }
+    }
+
+    if (token < 0) {
+      apply(new Operation(type, key, rid, database, token));
+      return getLastToken();
+    }
+
+    final Operation operation = new Operation(type, key, rid, database, token);
+    try {
+      queues.get((rid.hashCode() & Integer.MAX_VALUE) % queues.size()).put(operation);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      completed(token);
+      apply(operation);
+    }
+    return token;
+  }
+
+  private void consume(BlockingQueue<Operation> queue) {
+    ODatabaseDocumentTx database = null;
+    try {
+      while (true) {
+        final Operation operation;
+        try {
+          operation = queue.take();
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (operation == STOP)
+          return;
+
+        try {
+          database = bind(database, operation.database);
+          apply(operation);
+        } finally {
+          completed(operation.token);
+        }
+      }
+    } finally {
+      if (database != null)
+        database.close();
+      ODatabaseRecordThreadLocal.INSTANCE.remove();
+    }
+  }
+
+  /**
+   * Binds to the indexer thread a copy of the database that enqueued the operation, kept for the next ones until it is closed:
+   * the instances of the writers are not shared with the indexer threads.
+   */
+  private ODatabaseDocumentTx bind(ODatabaseDocumentTx bound, ODatabaseDocumentInternal source) {
+    if (bound != null && !bound.isClosed())
+      return bound;
+
+    if (!(source instanceof ODatabaseDocumentTx) || source.isClosed())
+      return bound;
+
+    final ODatabaseDocumentTx copy = ((ODatabaseDocumentTx) source).copy();
+    ODatabaseRecordThreadLocal.INSTANCE.set(copy);
+    return copy;
+  }
+
+  private void apply(Operation operation) {
+    // THE SAME LOCK AS THE SYNCHRONOUS WRITES: A TRANSACTION COMMIT DOES NOT INTERLEAVE WITH THE OPERATION
+    final boolean exclusive = !owner.isConcurrentWrites();
+    owner.acquireWriteLock(exclusive);
+    try {
+      switch (operation.type) {
+      case PUT:
+        owner.put(operation.key, Collections.singleton(operation.rid));
+        break;
+      case REMOVE:
+        owner.remove(operation.key, operation.rid);
+        break;
+      case UPDATE:
+        owner.update(operation.key, operation.rid);
+        break;
+      }
+    } catch (Exception e) {
+      OLogManager.instance().error(this, "Error on asynchronous %s of key '%s' -> %s in Lucene index", e, operation.type,
+          operation.key, operation.rid);
+    } finally {
+      owner.releaseWriteLock(exclusive);
+    }
+  }
+
+  private synchronized void completed(long token) {
+    inFlight.remove(token);
+    notifyAll();
+  }
+
+  private static final class Operation {
+    private final OPERATION                 type;
+    private final Object                    key;
+    private final OIdentifiable             rid;
+    private final ODatabaseDocumentInternal database;
+    private final long                      token;
+
+    private Operation(OPERATION type, Object key, OIdentifiable rid, ODatabaseDocumentInternal database, long token) {
+      this.type = type;
+      this.key = key;
+      this.rid = rid;
+      this.database = database;
+      this.token = token;
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.orientechnologies.lucene.manager;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LiveIndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.index.TrackingIndexWriter;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Switches a Lucene index in bulk-load mode while at least one database writing to it declares {@link OIntentMassiveInsert}:
+ * large RAM buffer, relaxed merges, no near real time reopens and no group commits. The intents are read on the threads of
+ * their databases, when they write or search the index: the mode ends when the last database registered declares another
+ * intent. The databases closed with the intent still declared are dropped every {@link #BULK_CHECK_PERIOD} ms. At the end the
+ * settings are restored at once, then the index is committed and optionally force merged in background.
+ * <p>
+ * The searchers are not refreshed during the load, in every staleness mode: a STRICT reader does not see the writes of the
+ * load, its own included, until the mode ends.
+ */
+public class OLuceneBulkLoader {
+
+  public static final String                                BULK_RAM_BUFFER_MB             = "bulkRamBufferMB";
+  public static final String                                BULK_SEGMENTS_PER_TIER         = "bulkSegmentsPerTier";
+  public static final String                                BULK_FORCE_MERGE               = "bulkForceMerge";
+  public static final double                                DEFAULT_BULK_RAM_BUFFER_MB     = 256;
+  public static final double                                DEFAULT_BULK_SEGMENTS_PER_TIER = 50;
+  public static final int                                   DEFAULT_BULK_FORCE_MERGE       = 0;
+  public static final long                                  BULK_CHECK_PERIOD              = 1000;
+
+  private static final Timer                                BULK_TIMER                     = new Timer("OrientDB Lucene Bulk Loader", true);
+  private static final ExecutorService                      FINISHERS                      = createFinishers();
+
+  private final OLuceneIndexManagerAbstract                 owner;
+  private final Map<ODatabaseDocumentInternal, Boolean>     loaders                        = new WeakHashMap<ODatabaseDocumentInternal, Boolean>();
+  private volatile boolean                                  active;
+  private volatile WeakReference<ODatabaseDocumentInternal> lastLoader;
+  private TimerTask                                         sampler;
+  private Future<?>                                         finishing;
+  private double                                            ramBufferMB;
+  private double                                            segmentsPerTier;
+  private int                                               maxMergeAtOnce;
+
+  public OLuceneBulkLoader(OLuceneIndexManagerAbstract owner) {
+    this.owner = owner;
+  }
+
+  private static ExecutorService createFinishers() {
+    final AtomicInteger counter = new AtomicInteger();
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread thread = new Thread(r, "OrientDB Lucene Bulk Finisher " + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  public boolean isActive() {
+    return active;
+  }
+
+  /**
+   * Follows the intent of the database bound to the current thread, if any: registers it when it declares the massive insert,
+   * entering the bulk-load mode, and unregisters it when it declared another intent since, leaving the mode with the last one.
+   * The writes of a database already registered only read volatile fields.
+   */
+  public void check() {
+    final ODatabaseDocumentInternal database = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+    if (database == null)
+      return;
+
+    if (!(database.getActiveIntent() instanceof OIntentMassiveInsert)) {
+      if (active)
+        unregister(database);
+      return;
+    }
+
+    final WeakReference<ODatabaseDocumentInternal> last = lastLoader;
+    if (active && last != null && last.get() == database)
+      return;
+
+    synchronized (this) {
+      loaders.put(database, Boolean.TRUE);
+      lastLoader = new WeakReference<ODatabaseDocumentInternal>(database);
+      if (!active)
+        begin();
+    }
+  }
+
+  private synchronized void unregister(ODatabaseDocumentInternal database) {
+    if (loaders.remove(database) != null && loaders.isEmpty() && active)
+      end(true);
+  }
+
+  /**
+   * Drops the databases closed without declaring another intent, leaving the mode if none is left. The intents themselves are
+   * not read here: they belong to the threads of the databases.
+   */
+  private synchronized void sample() {
+    if (!active)
+      return;
+
+    for (Iterator<ODatabaseDocumentInternal> it = loaders.keySet().iterator(); it.hasNext();) {
+      if (it.next().isClosed())
+        it.remove();
+    }
+
+    if (loaders.isEmpty())
+      end(true);
+  }
+
+  /**
+   * Leaves the bulk-load mode regardless of the declared intents, used when the index is closed. Waits for the end of a previous
+   * load still being committed.
+   */
+  public void stop() {
+    final Future<?> pending;
+    synchronized (this) {
+      loaders.clear();
+      if (active)
+        end(false);
+      pending = finishing;
+      finishing = null;
+    }
+    if (pending != null) {
+      try {
+        pending.get();
+      } catch (ExecutionException e) {
+        OLogManager.instance().error(this, "Error on ending bulk-load mode of Lucene index '%s'", e.getCause(), owner.indexName);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void begin() {
+    OLogManager.instance().info(this,
+        "Lucene index '%s' enters bulk-load mode: its searchers are not refreshed until the load ends, even for STRICT readers",
+        owner.indexName);
+
+    final IndexWriter indexWriter = owner.mgrWriter.getIndexWriter();
+    final LiveIndexWriterConfig config = indexWriter.getConfig();
+    ramBufferMB = config.getRAMBufferSizeMB();
+    config.setRAMBufferSizeMB(owner.getMetadataValue(BULK_RAM_BUFFER_MB, Double.class, DEFAULT_BULK_RAM_BUFFER_MB));
+
+    final MergePolicy mergePolicy = config.getMergePolicy();
+    if (mergePolicy instanceof TieredMergePolicy) {
+      final TieredMergePolicy tieredMergePolicy = (TieredMergePolicy) mergePolicy;
+      segmentsPerTier = tieredMergePolicy.getSegmentsPerTier();
+      maxMergeAtOnce = tieredMergePolicy.getMaxMergeAtOnce();
+      final double bulkSegmentsPerTier = owner.getMetadataValue(BULK_SEGMENTS_PER_TIER, Double.class,
+          DEFAULT_BULK_SEGMENTS_PER_TIER);
+      tieredMergePolicy.setMaxMergeAtOnce((int) bulkSegmentsPerTier);
+      tieredMergePolicy.setSegmentsPerTier(bulkSegmentsPerTier);
+    }
+
+    owner.stopReopen();
+    active = true;
+
+    sampler = new TimerTask() {
+      @Override
+      public void run() {
+        sample();
+      }
+    };
+    BULK_TIMER.schedule(sampler, BULK_CHECK_PERIOD, BULK_CHECK_PERIOD);
+  }
+
+  /**
+   * Restores the settings and the reopens on the calling thread. The commit and the force merge run on the finishers, they
+   * would block the writer that ended the load or the sampling of the other indexes.
+   */
+  private void end(boolean reopen) {
+    OLogManager.instance().info(this, "Lucene index '%s' leaves bulk-load mode", owner.indexName);
+
+    active = false;
+    lastLoader = null;
+    if (sampler != null) {
+      sampler.cancel();
+      sampler = null;
+    }
+
+    final IndexWriter indexWriter = owner.mgrWriter.getIndexWriter();
+    final LiveIndexWriterConfig config = indexWriter.getConfig();
+    config.setRAMBufferSizeMB(ramBufferMB);
+
+    final MergePolicy mergePolicy = config.getMergePolicy();
+    if (mergePolicy instanceof TieredMergePolicy) {
+      final TieredMergePolicy tieredMergePolicy = (TieredMergePolicy) mergePolicy;
+      tieredMergePolicy.setSegmentsPerTier(segmentsPerTier);
+      tieredMergePolicy.setMaxMergeAtOnce(maxMergeAtOnce);
+    }
+
+    if (!reopen)
+      // THE INDEX IS BEING CLOSED: IT COMMITS ON ITS OWN
+      return;
+
+    owner.startReopen();
+    finishing = FINISHERS.submit(new Runnable() {
+      @Override
+      public void run() {
+        finish();
+      }
+    });
+  }
+
+  private void finish() {
+    if (!owner.beginWriteIfOpened())
+      // CLOSED MEANWHILE, AND COMMITTED ON CLOSE
+      return;
+    try {
+      owner.flush();
+
+      final int forceMerge = owner.getMetadataValue(BULK_FORCE_MERGE, Integer.class, DEFAULT_BULK_FORCE_MERGE);
+      final TrackingIndexWriter writer = owner.mgrWriter;
+      if (forceMerge > 0 && writer != null) {
+        writer.getIndexWriter().forceMerge(forceMerge);
+        owner.flush();
+      }
+    } catch (IOException e) {
+      OLogManager.instance().error(this, "Error on force merging Lucene index '%s' after bulk load", e, owner.indexName);
+    } finally {
+      owner.endWrite();
+    }
+  }
+}
@@ -18,6 +18,7 @@
 
 package com.orientechnologies.lucene.manager;
 
+import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.lucene.query.QueryContext;
 import com.orientechnologies.lucene.utils.OLuceneIndexUtils;
 import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
@@ -35,8 +36,6 @@ import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.NIOFSDirectory;
-import org.apache.lucene.store.RAMDirectory;
 
 import java.io.File;
 import java.io.IOException;
@@ -73,8 +72,14 @@ public class OLuceneFacetManager {
       ODatabaseDocumentInternal database = owner.getDatabase();
       Iterable<String> iterable = metadata.field(FACET_FIELDS);
       if (iterable != null) {
-        Directory dir = getTaxDirectory(database);
-        taxonomyWriter = new DirectoryTaxonomyWriter(dir, IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        Directory dir = getTaxDirectory(database, true);
+        taxonomyWriter = new DirectoryTaxonomyWriter(dir, IndexWriterConfig.OpenMode.CREATE_OR_APPEND) {
+          @Override
+          protected IndexWriterConfig createIndexWriterConfig(IndexWriterConfig.OpenMode openMode) {
+            // THE TAXONOMY MERGES SHARE THE GLOBAL LIMITS WITH THE INDEXES
+            return super.createIndexWriterConfig(openMode).setMergeScheduler(OLuceneMergeCoordinator.newMergeScheduler());
+          }
+        };
         for (String s : iterable) {
           facetField = s;
           // facetField = "facet_" + s;
@@ -87,14 +92,21 @@ public class OLuceneFacetManager {
     }
   }
 
-  private Directory getTaxDirectory(ODatabaseDocumentInternal database) throws IOException {
+  /**
+   * @param throttled
+   *          true for the directory of the writer, whose merges are throttled on disk like the ones of the index
+   */
+  private Directory getTaxDirectory(ODatabaseDocumentInternal database, boolean throttled) throws IOException {
     Directory dir = null;
     final OAbstractPaginatedStorage storageLocalAbstract = (OAbstractPaginatedStorage) database.getStorage().getUnderlying();
     if (storageLocalAbstract instanceof OLocalPaginatedStorage) {
       String pathname = getIndexFacetPath((OLocalPaginatedStorage) storageLocalAbstract);
-      dir = NIOFSDirectory.open(new File(pathname));
+      dir = owner.openDirectory(new File(pathname));
+      if (throttled)
+        dir = OLuceneMergeCoordinator.throttle(dir);
     } else {
-      dir = new RAMDirectory();
+      // THE TAXONOMY OF A MEMORY DATABASE LIVES ONLY IN ITS DIRECTORY: KEPT BY THE INDEX ACROSS THE FACET MANAGERS
+      dir = owner.getTaxonomyMemoryDirectory();
     }
     return dir;
   }
@@ -115,6 +127,21 @@ public class OLuceneFacetManager {
     }
   }
 
+  /**
+   * Closes the taxonomy writer, committing it and releasing the lock of its directory.
+   */
+  public void close() {
+    if (taxonomyWriter == null)
+      return;
+
+    try {
+      taxonomyWriter.close();
+    } catch (IOException e) {
+      OLogManager.instance().error(this, "Error on closing Lucene taxonomy writer", e);
+    }
+    taxonomyWriter = null;
+  }
+
   protected Boolean supportsFacets() {
     return taxonomyWriter != null;
   }
@@ -168,7 +195,7 @@ public class OLuceneFacetManager {
     queryContext.setFacetField(facetField);
     queryContext.setFacetConfig(config);
     // queryContext.setfacetDim(facetDim);
-    queryContext.setReader(new DirectoryTaxonomyReader(getTaxDirectory(owner.getDatabase())));
+    queryContext.setReader(new DirectoryTaxonomyReader(getTaxDirectory(owner.getDatabase(), false)));
 
     if (key instanceof OCompositeKey) {
       List<Object> keys = ((OCompositeKey) key).getKeys();
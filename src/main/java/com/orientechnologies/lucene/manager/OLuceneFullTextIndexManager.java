@@ -18,6 +18,7 @@ package com.orientechnologies.lucene.manager;
 
 import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.lucene.OLuceneIndexType;
+import com.orientechnologies.lucene.collections.LuceneIndexCursor;
 import com.orientechnologies.lucene.collections.LuceneResultSet;
 import com.orientechnologies.lucene.collections.OFullTextCompositeKey;
 import com.orientechnologies.lucene.query.QueryContext;
@@ -33,9 +34,11 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Version;
 
@@ -44,6 +47,8 @@ import java.util.*;
 
 public class OLuceneFullTextIndexManager extends OLuceneIndexManagerAbstract {
 
+  public static final String    SCORING = "scoring";
+
   protected OLuceneFacetManager facetManager;
 
   public OLuceneFullTextIndexManager() {
@@ -56,7 +61,11 @@ public class OLuceneFullTextIndexManager extends OLuceneIndexManagerAbstract {
     Version version = getLuceneVersion(metadata);
     IndexWriterConfig iwc = new IndexWriterConfig(version, analyzer);
     iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+    iwc.setMergeScheduler(OLuceneMergeCoordinator.newMergeScheduler());
 
+    // REOPENED ON ROLLBACK: THE PREVIOUS TAXONOMY WRITER STILL HOLDS THE LOCK OF THE DIRECTORY
+    if (facetManager != null)
+      facetManager.close();
     facetManager = new OLuceneFacetManager(this, metadata);
 
     OLogManager.instance().debug(this, "Creating Lucene index in '%s'...", directory);
@@ -70,6 +79,7 @@ public class OLuceneFullTextIndexManager extends OLuceneIndexManagerAbstract {
     Version version = getLuceneVersion(metadata);
     IndexWriterConfig iwc = new IndexWriterConfig(version, analyzer);
     iwc.setOpenMode(IndexWriterConfig.OpenMode.APPEND);
+    iwc.setMergeScheduler(OLuceneMergeCoordinator.newMergeScheduler());
 
     OLogManager.instance().debug(this, "Opening Lucene index in '%s'...", directory);
 
@@ -98,9 +108,11 @@ public class OLuceneFullTextIndexManager extends OLuceneIndexManagerAbstract {
 
   @Override
   public Object get(Object key) {
+    ensureOpen();
     Query q = null;
     try {
-      q = OLuceneIndexType.createFullQuery(index, key, mgrWriter.getIndexWriter().getAnalyzer(), getLuceneVersion(metadata));
+      q = OLuceneIndexType.createFullQuery(index, key, mgrWriter.getIndexWriter().getAnalyzer(), getLuceneVersion(metadata),
+          queryCache);
       OCommandContext context = null;
       if (key instanceof OFullTextCompositeKey) {
         context = ((OFullTextCompositeKey) key).getContext();
@@ -113,84 +125,121 @@ public class OLuceneFullTextIndexManager extends OLuceneIndexManagerAbstract {
 
   @Override
   public void put(Object key, Object value) {
-    Set<OIdentifiable> container = (Set<OIdentifiable>) value;
-    for (OIdentifiable oIdentifiable : container) {
-      Document doc = new Document();
-      doc.add(OLuceneIndexType.createField(RID, oIdentifiable.getIdentity().toString(), Field.Store.YES,
-          Field.Index.NOT_ANALYZED_NO_NORMS));
-      int i = 0;
-      if (index.isAutomatic()) {
-        for (String f : index.getFields()) {
-
-          Object val = null;
-          if (key instanceof OCompositeKey) {
-            val = ((OCompositeKey) key).getKeys().get(i);
-            i++;
-          } else {
-            val = key;
-          }
-          if (val != null) {
-            if (facetManager.supportsFacets() && facetManager.isFacetField(f)) {
-              doc.add(facetManager.buildFacetField(f, val));
-            } else {
-
-              if (isToStore(f).equals(Field.Store.YES)) {
-                doc.add(OLuceneIndexType.createField(f + STORED, val, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
-              }
-              doc.add(OLuceneIndexType.createField(f, val, Field.Store.NO, Field.Index.ANALYZED));
-            }
-          }
-
+    // THE DOCUMENTS ARE BUILT WITH THE TAXONOMY WRITER: IT MUST STAY OPEN UNTIL THEY ARE ADDED
+    beginWrite();
+    try {
+      Set<OIdentifiable> container = (Set<OIdentifiable>) value;
+      for (OIdentifiable oIdentifiable : container) {
+        Document doc = createDocument(key, oIdentifiable);
+        if (doc != null) {
+          addDocument(doc);
         }
-      } else {
+      }
+
+      requestCommit();
+    } finally {
+      endWrite();
+    }
+  }
+
+  @Override
+  public Document createDocument(Object key, OIdentifiable oIdentifiable) {
+    Document doc = new Document();
+    doc.add(OLuceneIndexType.createField(RID, oIdentifiable.getIdentity().toString(), Field.Store.NO,
+        Field.Index.NOT_ANALYZED_NO_NORMS));
+    OLuceneIndexType.addRidDocValues(doc, oIdentifiable);
+    int i = 0;
+    if (index.isAutomatic()) {
+      for (String f : index.getFields()) {
 
         Object val = null;
         if (key instanceof OCompositeKey) {
-          List<Object> keys = ((OCompositeKey) key).getKeys();
-
-          int k = 0;
-          for (Object o : keys) {
-            doc.add(OLuceneIndexType.createField("k" + k, val, Field.Store.NO, Field.Index.ANALYZED));
-          }
-        } else if (key instanceof Collection) {
-          Collection<Object> keys = (Collection<Object>) key;
-          int k = 0;
-          for (Object o : keys) {
-            doc.add(OLuceneIndexType.createField("k" + k, o, Field.Store.NO, Field.Index.ANALYZED));
-          }
+          val = ((OCompositeKey) key).getKeys().get(i);
+          i++;
         } else {
           val = key;
-          doc.add(OLuceneIndexType.createField("k0", val, Field.Store.NO, Field.Index.ANALYZED));
         }
-      }
-      if (facetManager.supportsFacets()) {
-        try {
-          addDocument(facetManager.buildDocument(doc));
-        } catch (IOException e) {
-          e.printStackTrace();
+        if (val != null) {
+          if (facetManager.supportsFacets() && facetManager.isFacetField(f)) {
+            doc.add(facetManager.buildFacetField(f, val));
+          } else {
+
+            if (isToStore(f).equals(Field.Store.YES)) {
+              doc.add(OLuceneIndexType.createField(f + STORED, val, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+            }
+            doc.add(OLuceneIndexType.createField(f, val, Field.Store.NO, Field.Index.ANALYZED));
+          }
         }
-      } else {
-        addDocument(doc);
+
       }
+    } else {
 
-      facetManager.commit();
+      Object val = null;
+      if (key instanceof OCompositeKey) {
+        List<Object> keys = ((OCompositeKey) key).getKeys();
 
-      if (!index.isAutomatic()) {
-        commit();
+        int k = 0;
+        for (Object o : keys) {
+          doc.add(OLuceneIndexType.createField("k" + k, val, Field.Store.NO, Field.Index.ANALYZED));
+        }
+      } else if (key instanceof Collection) {
+        Collection<Object> keys = (Collection<Object>) key;
+        int k = 0;
+        for (Object o : keys) {
+          doc.add(OLuceneIndexType.createField("k" + k, o, Field.Store.NO, Field.Index.ANALYZED));
+        }
+      } else {
+        val = key;
+        doc.add(OLuceneIndexType.createField("k0", val, Field.Store.NO, Field.Index.ANALYZED));
       }
     }
+    if (facetManager.supportsFacets()) {
+      try {
+        return facetManager.buildDocument(doc);
+      } catch (IOException e) {
+        OLogManager.instance().error(this, "Error on building facets of document '%s' for Lucene index", e, doc);
+        return null;
+      }
+    }
+    return doc;
+  }
+
+  @Override
+  public void commit() {
+    if (!isOpened())
+      return;
+
+    // THE TAXONOMY MUST BE DURABLE BEFORE THE DOCUMENTS REFERRING TO ITS ORDINALS
+    facetManager.commit();
+    super.commit();
+  }
+
+  @Override
+  protected void closeWriter() throws IOException {
+    // THE TAXONOMY WAS COMMITTED WITH THE LAST DOCUMENTS: RELEASE THE LOCK OF ITS DIRECTORY BEFORE THE NEXT OPEN
+    if (facetManager != null)
+      facetManager.close();
+    super.closeWriter();
   }
 
   private Set<OIdentifiable> getResults(Query query, OCommandContext context, Object key) {
 
+    OLuceneSearcherLeases.Lease lease = null;
     try {
-      IndexSearcher searcher = getSearcher();
-      QueryContext queryContext = new QueryContext(context, searcher, query);
+      lease = leaseSearcher();
+      QueryContext queryContext = new QueryContext(context, lease.getSearcher(), query);
+      if (!queryContext.isScoring() || !getMetadataValue(SCORING, Boolean.class, Boolean.TRUE)) {
+        // NO SCORES TO COMPUTE NOR TO SORT BY: MATCH IN DOC ID ORDER
+        queryContext = new QueryContext(context, lease.getSearcher(), new ConstantScoreQuery(query), null, Sort.INDEXORDER)
+            .setScoring(false);
+      }
       if (facetManager.supportsFacets()) {
         facetManager.addFacetContext(queryContext, key);
       }
-      return new LuceneResultSet(this, queryContext);
+      return new LuceneResultSet(this, queryContext, lease);
     } catch (IOException e) {
+      if (lease != null)
+        lease.release();
       throw new OIndexException("Error reading from Lucene index", e);
     }
 
@@ -198,6 +247,8 @@ public class OLuceneFullTextIndexManager extends OLuceneIndexManagerAbstract {
 
   @Override
   public void onRecordAddedToResultSet(QueryContext queryContext, OContextualRecordId recordId, Document ret, final ScoreDoc score) {
+    if (!queryContext.isScoring())
+      return;
     recordId.setContext(new HashMap<String, Object>() {
       {
         put("score", score.score);
@@ -218,7 +269,7 @@ public class OLuceneFullTextIndexManager extends OLuceneIndexManagerAbstract {
   @Override
   public OIndexCursor iterateEntriesBetween(Object rangeFrom, boolean fromInclusive, Object rangeTo, boolean toInclusive,
       boolean ascSortOrder, ValuesTransformer transformer) {
-    return new LuceneIndexCursor((LuceneResultSet) get(rangeFrom), rangeFrom);
+    return new LuceneIndexCursor((Set<OIdentifiable>) get(rangeFrom), rangeFrom);
   }
 
   @Override
@@ -233,7 +284,18 @@ public class OLuceneFullTextIndexManager extends OLuceneIndexManagerAbstract {
 
   @Override
   public OIndexCursor cursor(ValuesTransformer valuesTransformer) {
-    return null;
+    OLuceneSearcherLeases.Lease lease = null;
+    try {
+      lease = leaseSearcher();
+      QueryContext queryContext = new QueryContext(null, lease.getSearcher(), new MatchAllDocsQuery(), null, Sort.INDEXORDER)
+          .setScoring(false);
+      // THE KEYS ARE ANALYZED AND NOT STORED: THE ENTRIES HAVE NO KEY
+      return new LuceneIndexCursor(new LuceneResultSet(this, queryContext, lease), null);
+    } catch (IOException e) {
+      if (lease != null)
+        lease.release();
+      throw new OIndexException("Error reading from Lucene index", e);
+    }
   }
 
   @Override
@@ -263,8 +325,14 @@ public class OLuceneFullTextIndexManager extends OLuceneIndexManagerAbstract {
 
   @Override
   public Query buildQuery(Object query) throws ParseException {
-    return OLuceneIndexType.createFullQuery(index, query, mgrWriter.getIndexWriter().getAnalyzer(), getLuceneVersion(metadata));
+    ensureOpen();
+    return parseQuery(query);
+  }
 
+  @Override
+  protected Query parseQuery(Object query) throws ParseException {
+    return OLuceneIndexType.createFullQuery(index, query, mgrWriter.getIndexWriter().getAnalyzer(), getLuceneVersion(metadata),
+        queryCache);
   }
 
   @Override
@@ -277,8 +345,9 @@ public class OLuceneFullTextIndexManager extends OLuceneIndexManagerAbstract {
     int i = 0;
 
     if (value != null) {
-      doc.add(OLuceneIndexType.createField(OLuceneIndexManagerAbstract.RID, value.getIdentity().toString(), Field.Store.YES,
+      doc.add(OLuceneIndexType.createField(OLuceneIndexManagerAbstract.RID, value.getIdentity().toString(), Field.Store.NO,
           Field.Index.NOT_ANALYZED_NO_NORMS));
+      OLuceneIndexType.addRidDocValues(doc, value);
     }
     List<Object> formattedKey = formatKeys(definition, key);
     for (String f : definition.getFields()) {
@@ -310,83 +379,10 @@ public class OLuceneFullTextIndexManager extends OLuceneIndexManagerAbstract {
 
   @Override
   public void delete() {
+    // THE FACET MANAGER KNOWS WHERE THE TAXONOMY IS
+    ensureOpen();
     super.delete();
     facetManager.delete();
   }
 
-  public class LuceneIndexCursor implements OIndexCursor {
-
-    private final Object            key;
-    private LuceneResultSet         resultSet;
-
-    private Iterator<OIdentifiable> iterator;
-
-    public LuceneIndexCursor(LuceneResultSet resultSet, Object key) {
-      this.resultSet = resultSet;
-      this.iterator = resultSet.iterator();
-      this.key = key;
-    }
-
-    @Override
-    public Map.Entry<Object, OIdentifiable> nextEntry() {
-
-      if (iterator.hasNext()) {
-        final OIdentifiable next = iterator.next();
-        return new Map.Entry<Object, OIdentifiable>() {
-          @Override
-          public Object getKey() {
-            return key;
-          }
-
-          @Override
-          public OIdentifiable getValue() {
-            return next;
-          }
-
-          @Override
-          public OIdentifiable setValue(OIdentifiable value) {
-            return null;
-          }
-        };
-      }
-      return null;
-    }
-
-    @Override
-    public Set<OIdentifiable> toValues() {
-      return null;
-    }
-
-    @Override
-    public Set<Map.Entry<Object, OIdentifiable>> toEntries() {
-      return null;
-    }
-
-    @Override
-    public Set<Object> toKeys() {
-      return null;
-    }
-
-    @Override
-    public void setPrefetchSize(int prefetchSize) {
-
-    }
-
-    @Override
-    public boolean hasNext() {
-      return false;
-    }
-
-    @Override
-    public OIdentifiable next() {
-      return null;
-    }
-
-    @Override
-    public void remove() {
-
-    }
-
-  }
-
 }
@@ -0,0 +1,174 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.orientechnologies.lucene.manager;
+
+import com.orientechnologies.common.log.OLogManager;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges the commit requests of many writers into a single durable commit of the index. Documents reach the index writer
+ * immediately, only the commit is deferred until the latency window expires or enough commits are pending.
+ * <p>
+ * The puts of every Lucene index, full-text and spatial, no longer fsync the index before returning: a crash loses the writes
+ * of the last latency window, which the index gets back with a rebuild. Set {@link #COMMIT_LATENCY} to 0 to commit on every
+ * write as before.
+ */
+public class OLuceneGroupCommitter {
+
+  public static final String                    COMMIT_LATENCY            = "commitLatency";
+  public static final String                    COMMIT_BATCH_SIZE         = "commitBatchSize";
+  public static final long                      DEFAULT_COMMIT_LATENCY    = 100;
+  public static final int                       DEFAULT_COMMIT_BATCH_SIZE = 1000;
+
+  private static final ScheduledExecutorService COMMITTERS                = createCommitters();
+
+  private final OLuceneIndexManagerAbstract     owner;
+  private final long                            latency;
+  private final int                             batchSize;
+  private final Object                          commitLock                = new Object();
+  private final AtomicLong                      commits                   = new AtomicLong();
+  private final Runnable                        commitTask                = new Runnable() {
+                                                                            @Override
+                                                                            public void run() {
+                                                                              commitPending();
+                                                                            }
+                                                                          };
+  private int                                   pending;
+  private ScheduledFuture<?>                    scheduled;
+  private boolean                               immediate;
+  private boolean                               closed;
+
+  public OLuceneGroupCommitter(OLuceneIndexManagerAbstract owner, long latency, int batchSize) {
+    this.owner = owner;
+    this.latency = latency;
+    this.batchSize = batchSize;
+  }
+
+  private static ScheduledExecutorService createCommitters() {
+    final AtomicInteger counter = new AtomicInteger();
+    final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread thread = new Thread(r, "OrientDB Lucene Committer " + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    return executor;
+  }
+
+  /**
+   * Registers a pending commit. The commit is executed by the committer threads together with all the other pending ones.
+   */
+  public synchronized void requestCommit() {
+    if (closed)
+      return;
+
+    pending++;
+    if (pending >= batchSize) {
+      if (!immediate) {
+        if (scheduled != null)
+          scheduled.cancel(false);
+        immediate = true;
+        scheduled = COMMITTERS.schedule(commitTask, 0, TimeUnit.MILLISECONDS);
+      }
+    } else if (scheduled == null) {
+      scheduled = COMMITTERS.schedule(commitTask, latency, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Returns false if the latency window is disabled, so every write has to be committed before returning.
+   */
+  public boolean isDeferred() {
+    return latency > 0;
+  }
+
+  public synchronized int getPending() {
+    return pending;
+  }
+
+  /**
+   * Returns the commits executed, each one covering all the requests pending at that time.
+   */
+  public long getCommits() {
+    return commits.get();
+  }
+
+  /**
+   * Commits synchronously, including the commits still waiting for the latency window.
+   */
+  public void flush() {
+    synchronized (commitLock) {
+      reset();
+      owner.commit();
+      commits.incrementAndGet();
+    }
+  }
+
+  /**
+   * Stops accepting commit requests. If <code>commit</code> is true the pending commits are executed before returning.
+   */
+  public void close(boolean commit) {
+    synchronized (commitLock) {
+      final int toCommit;
+      synchronized (this) {
+        closed = true;
+        toCommit = reset();
+      }
+      if (commit && toCommit > 0) {
+        owner.commit();
+        commits.incrementAndGet();
+      }
+    }
+  }
+
+  protected void commitPending() {
+    synchronized (commitLock) {
+      if (reset() == 0)
+        return;
+
+      try {
+        owner.commit();
+        commits.incrementAndGet();
+      } catch (Exception e) {
+        OLogManager.instance().error(this, "Error on group commit of Lucene index", e);
+      }
+    }
+  }
+
+  private synchronized int reset() {
+    final int committed = pending;
+    pending = 0;
+    immediate = false;
+    if (scheduled != null) {
+      scheduled.cancel(false);
+      scheduled = null;
+    }
+    return committed;
+  }
+}
@@ -20,6 +20,11 @@ import com.orientechnologies.common.concur.resource.OSharedResourceAdaptiveExter
 import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.lucene.OLuceneIndexType;
 import com.orientechnologies.lucene.OLuceneMapEntryIterator;
+import com.orientechnologies.lucene.collections.LuceneResultSet;
+import com.orientechnologies.lucene.directory.OLuceneDirectoryFactories;
+import com.orientechnologies.lucene.directory.OOffHeapDirectory;
+import com.orientechnologies.lucene.query.OLuceneQueryCache;
+import com.orientechnologies.lucene.query.OLuceneResultCache;
 import com.orientechnologies.lucene.query.QueryContext;
 import com.orientechnologies.lucene.utils.OLuceneIndexUtils;
 import com.orientechnologies.orient.core.OOrientListener;
@@ -34,6 +39,7 @@ import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.index.*;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OProperty;
+import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializer;
 import com.orientechnologies.orient.core.storage.OStorage;
@@ -43,20 +49,21 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TrackingIndexWriter;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.NIOFSDirectory;
-import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdaptiveExternal implements OIndexEngine<V>,
     OOrientListener {
@@ -64,23 +71,67 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
   public static final String               RID              = "RID";
   public static final String               KEY              = "KEY";
   public static final String               STORED           = "_STORED";
+  public static final String               RID_CLUSTER      = "RID_CLUSTER";
+  public static final String               RID_POSITION     = "RID_POSITION";
   public static final Version              LUCENE_VERSION   = Version.LUCENE_47;
 
   public static final String               OLUCENE_BASE_DIR = "luceneIndexes";
+  public static final String               CONCURRENT_WRITES = "concurrentWrites";
+  public static final String               STALENESS_MODE   = "staleness";
+  public static final String               MAX_STALENESS    = "maxStaleness";
+  public static final long                 DEFAULT_MAX_STALENESS = 100;
+  public static final String               LAZY_OPEN        = "lazyOpen";
+  public static final String               IDLE_TIMEOUT     = "idleTimeout";
+
+  private static final Timer               IDLE_TIMER       = new Timer("OrientDB Lucene Idle Closer", true);
 
   protected SearcherManager                searcherManager;
   protected OIndexDefinition               index;
-  protected TrackingIndexWriter            mgrWriter;
+  protected volatile TrackingIndexWriter   mgrWriter;
   protected String                         indexName;
   protected String                         clusterIndexName;
   protected OStreamSerializer              serializer;
   protected boolean                        automatic;
-  protected ControlledRealTimeReopenThread nrt;
+  protected volatile OLuceneReopenScheduler.Reopener nrt;
+  protected volatile OLuceneGroupCommitter committer;
+  protected volatile OLuceneAsyncIndexer  asyncIndexer;
+  protected final OLuceneBulkLoader        bulkLoader       = new OLuceneBulkLoader(this);
+  protected final OLuceneSearcherLeases    leases           = new OLuceneSearcherLeases(this);
+  protected final OLuceneSearcherWarmer    warmer           = new OLuceneSearcherWarmer(this);
+  protected volatile OLuceneQueryCache     queryCache;
+  protected volatile OLuceneResultCache    resultCache;
   protected ODocument                      metadata;
   protected Version                        version;
   private OIndex                           managedIndex;
-  private boolean                          rebuilding;
-  private long                             reopenToken;
+  private volatile boolean                 rebuilding;
+  private volatile String                  directoryName;
+  private String                           profiledDatabase;
+  private Directory                        memoryDirectory;
+  private Directory                        taxonomyMemoryDirectory;
+  private final Object                     openLock         = new Object();
+  private volatile boolean                 opened;
+  private volatile boolean                 closing;
+  private volatile long                    lastUsed;
+  // WRITES IN PROGRESS: AN IDLE CLOSE MUST NOT CLOSE THE WRITER UNDER THEM
+  private final AtomicInteger              writes           = new AtomicInteger();
+  // TAKEN BY THE SYNCHRONOUS WRITES OF THE INDEX AND BY THE INDEXER THREADS, EXCLUSIVE FOR A TRANSACTION COMMIT
+  private final ReentrantReadWriteLock     writeLock        = new ReentrantReadWriteLock();
+  private TimerTask                        idleCloser;
+  private volatile boolean                 concurrentWrites = true;
+  private final AtomicLong                 reopenToken      = new AtomicLong();
+  private final AtomicLong                 fetchedHits      = new AtomicLong();
+  private final AtomicLong                 resolvedHits     = new AtomicLong();
+  private volatile long                    writerEpoch;
+  // EPOCH OF THE WRITER AND GENERATION OF THE LAST WRITE OF THE THREAD
+  private final ThreadLocal<long[]>        threadToken      = new ThreadLocal<long[]>() {
+                                                              @Override
+                                                              protected long[] initialValue() {
+                                                                return new long[2];
+                                                              }
+                                                            };
+  private volatile STALENESS               staleness        = STALENESS.STRICT;
+  private volatile long                    maxStaleness     = DEFAULT_MAX_STALENESS;
+  private volatile long                    refreshedAt;
   protected Map<String, Boolean>           collectionFields = new HashMap<String, Boolean>();
 
   public OLuceneIndexManagerAbstract() {
@@ -106,26 +157,91 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
   public abstract IndexWriter createIndexWriter(Directory directory, ODocument metadata) throws IOException;
 
   public void addDocument(Document doc) {
+    beginWrite();
     try {
 
-      reopenToken = mgrWriter.addDocument(doc);
+      updateReopenToken(mgrWriter.addDocument(doc));
     } catch (IOException e) {
       OLogManager.instance().error(this, "Error on adding new document '%s' to Lucene index", e, doc);
+    } finally {
+      endWrite();
+    }
+  }
+
+  public void updateDocument(Term term, Document doc) {
+    beginWrite();
+    try {
+      updateReopenToken(mgrWriter.updateDocument(term, doc));
+    } catch (IOException e) {
+      OLogManager.instance().error(this, "Error on updating document '%s' of Lucene index", e, doc);
+    } finally {
+      endWrite();
     }
   }
 
   public void deleteDocument(Query query) {
+    beginWrite();
     try {
-      reopenToken = mgrWriter.deleteDocuments(query);
+      updateReopenToken(mgrWriter.deleteDocuments(query));
       if (!mgrWriter.getIndexWriter().hasDeletions()) {
         OLogManager.instance().error(this, "Error on deleting document by query '%s' to Lucene index",
             new OIndexException("Error deleting document"), query);
       }
     } catch (IOException e) {
       OLogManager.instance().error(this, "Error on deleting document by query '%s' to Lucene index", e, query);
+    } finally {
+      endWrite();
     }
   }
 
+  /**
+   * Raises the generation the searchers wait for. Writers run concurrently, so a late writer must not lower the generation
+   * published by an earlier one.
+   */
+  protected void updateReopenToken(long generation) {
+    // EVERY WRITE ENDS HERE: THE MERGES SLOW DOWN UNDER FOREGROUND LOAD
+    OLuceneMergeCoordinator.recordWrite();
+
+    final long[] token = threadToken.get();
+    if (token[0] != writerEpoch) {
+      token[0] = writerEpoch;
+      token[1] = 0;
+    }
+    if (generation > token[1])
+      token[1] = generation;
+
+    long current = reopenToken.get();
+    while (generation > current && !reopenToken.compareAndSet(current, generation)) {
+      current = reopenToken.get();
+    }
+  }
+
+  /**
+   * Returns true if the writers can run concurrently on the index, relying on the thread safety of the IndexWriter.
+   */
+  public boolean isConcurrentWrites() {
+    return concurrentWrites;
+  }
+
+  /**
+   * Takes the write lock shared by the synchronous writes and the indexer threads, exclusive if the writes are not concurrent
+   * or for a transaction commit. It is taken after the lock of the OrientDB index and never held while waiting for the indexer
+   * threads, so a close or a drop of the index can still drain them.
+   */
+  public void acquireWriteLock(boolean exclusive) {
+    if (exclusive)
+      writeLock.writeLock().lock();
+    else
+      writeLock.readLock().lock();
+  }
+
+  public void releaseWriteLock(boolean exclusive) {
+    if (exclusive)
+      writeLock.writeLock().unlock();
+    else
+      writeLock.readLock().unlock();
+  }
+
   public boolean remove(Object key, OIdentifiable value) {
 
     Query query = null;
@@ -139,14 +255,182 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
     return true;
   }
 
+  /**
+   * Removes all the entries in a single delete call on the index writer: by RID term when every record has one document, by
+   * query otherwise.
+   */
+  public void removeBatch(Map<Object, ? extends Collection<OIdentifiable>> entries) {
+    beginWrite();
+    try {
+      removeEntries(entries);
+    } finally {
+      endWrite();
+    }
+  }
+
+  private void removeEntries(Map<Object, ? extends Collection<OIdentifiable>> entries) {
+    final boolean collectionDelete = isCollectionDelete();
+    final List<Term> terms = new ArrayList<Term>();
+    final List<Query> queries = new ArrayList<Query>();
+    for (Map.Entry<Object, ? extends Collection<OIdentifiable>> entry : entries.entrySet()) {
+      for (OIdentifiable value : entry.getValue()) {
+        if (collectionDelete)
+          queries.add(OLuceneIndexType.createDeleteQuery(value, index.getFields(), entry.getKey()));
+        else
+          terms.add(OLuceneIndexType.createIdTerm(value));
+      }
+    }
+
+    try {
+      if (!terms.isEmpty())
+        updateReopenToken(mgrWriter.deleteDocuments(terms.toArray(new Term[terms.size()])));
+      if (!queries.isEmpty())
+        updateReopenToken(mgrWriter.deleteDocuments(queries.toArray(new Query[queries.size()])));
+    } catch (IOException e) {
+      OLogManager.instance().error(this, "Error on deleting %d documents from Lucene index", e, terms.size() + queries.size());
+    }
+  }
+
+  /**
+   * Adds the documents of all the entries one by one: a document failing to build or to index is logged and skipped, the others
+   * are still added. A single addDocuments() call would be an atomic block, lost as a whole on the first failure.
+   */
+  public void putBatch(Map<Object, ? extends Collection<OIdentifiable>> entries) {
+    beginWrite();
+    try {
+      putEntries(entries);
+    } finally {
+      endWrite();
+    }
+  }
+
+  private void putEntries(Map<Object, ? extends Collection<OIdentifiable>> entries) {
+    int failed = 0;
+    for (Map.Entry<Object, ? extends Collection<OIdentifiable>> entry : entries.entrySet()) {
+      for (OIdentifiable value : entry.getValue()) {
+        try {
+          final Document doc = createDocument(entry.getKey(), value);
+          if (doc != null)
+            updateReopenToken(mgrWriter.addDocument(doc));
+        } catch (IOException e) {
+          failed++;
+          OLogManager.instance().error(this, "Error on adding document of record %s to Lucene index", e, value);
+        } catch (RuntimeException e) {
+          failed++;
+          OLogManager.instance().error(this, "Error on adding document of record %s to Lucene index", e, value);
+        }
+      }
+    }
+    if (failed > 0)
+      OLogManager.instance().warn(this, "%d documents were not added to Lucene index '%s'", failed, indexName);
+    requestCommit();
+  }
+
+  public boolean isAsync() {
+    ensureOpen();
+    return asyncIndexer != null;
+  }
+
+  /**
+   * Enqueues the put for the indexer threads and returns the token to wait on for seeing it.
+   */
+  public long putAsync(Object key, OIdentifiable value) {
+    return asyncIndexer.put(key, value);
+  }
+
+  /**
+   * Enqueues the remove for the indexer threads and returns the token to wait on for seeing it.
+   */
+  public long removeAsync(Object key, OIdentifiable value) {
+    return asyncIndexer.remove(key, value);
+  }
+
+  /**
+   * Enqueues the update for the indexer threads and returns the token to wait on for seeing it.
+   */
+  public long updateAsync(Object key, OIdentifiable value) {
+    return asyncIndexer.update(key, value);
+  }
+
+  protected void waitForAsyncIndexing() throws InterruptedException {
+    final OLuceneAsyncIndexer indexer = asyncIndexer;
+    if (indexer != null)
+      indexer.waitFor(indexer.getLastToken());
+  }
+
+  /**
+   * Waits for the indexer threads to apply every write enqueued so far, so a synchronous write of the same records is not
+   * overtaken by an older queued one.
+   */
+  public void drainAsyncIndexing() {
+    try {
+      waitForAsyncIndexing();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OIndexException("Interrupted while waiting for the indexer threads of Lucene index '" + indexName + "'", e);
+    }
+  }
+
+  /**
+   * Returns true if every record has at most one document in the index, so the document can be replaced by RID.
+   */
+  public boolean supportsUpdate() {
+    return index.isAutomatic() && !isCollectionDelete();
+  }
+
+  /**
+   * Replaces the document of the record with the one of the new key, in a single term-delete-plus-add on the RID.
+   */
+  public void update(Object key, OIdentifiable value) {
+    beginWrite();
+    try {
+      final Document doc = createDocument(key, value);
+      if (doc != null) {
+        updateDocument(OLuceneIndexType.createIdTerm(value), doc);
+      }
+      requestCommit();
+    } finally {
+      endWrite();
+    }
+  }
+
   public void commit() {
+    final TrackingIndexWriter writer = mgrWriter;
+    if (!opened || writer == null)
+      return;
+
     try {
-      mgrWriter.getIndexWriter().commit();
+      writer.getIndexWriter().commit();
     } catch (IOException e) {
       OLogManager.instance().error(this, "Error on committing Lucene index", e);
     }
   }
 
+  /**
+   * Asks for a durable commit of the index. The commit is executed asynchronously by the group committer, merged with the
+   * commits requested by the other writers: this applies to every index type, full-text and spatial, so a write is visible to
+   * the searchers at once but reaches the disk up to {@link OLuceneGroupCommitter#COMMIT_LATENCY} ms later.
+   */
+  public void requestCommit() {
+    if (!opened)
+      return;
+
+    if (rebuilding)
+      // THE REBUILD COMMITS ONCE AT THE END
+      return;
+
+    bulkLoader.check();
+    if (bulkLoader.isActive())
+      // THE BULK LOAD COMMITS ONCE WHEN THE INTENT ENDS
+      return;
+
+    if (committer != null && committer.isDeferred()) {
+      committer.requestCommit();
+    } else {
+      commit();
+    }
+  }
+
   @Override
   public void deleteWithoutLoad(String indexName) {
     internalDelete(indexName);
@@ -154,8 +438,9 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
 
   protected void internalDelete(String indexName) {
     try {
-      if (mgrWriter != null && mgrWriter.getIndexWriter() != null) {
-        closeIndex();
+      synchronized (openLock) {
+        if (opened)
+          closeIndex();
       }
       ODatabaseDocumentInternal database = getDatabase();
       final OAbstractPaginatedStorage storageLocalAbstract = (OAbstractPaginatedStorage) database.getStorage().getUnderlying();
@@ -174,13 +459,15 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
   }
 
   public void delete() {
-    if (mgrWriter == null)
+    if (index == null)
       // INDEX NOT COMPLETELY INITIALIZED, SKIP IT
       return;
 
+    unregisterMetrics();
     try {
-      if (mgrWriter.getIndexWriter() != null) {
-        closeIndex();
+      synchronized (openLock) {
+        if (opened)
+          closeIndex();
       }
       ODatabaseDocumentInternal database = getDatabase();
       final OAbstractPaginatedStorage storageLocalAbstract = (OAbstractPaginatedStorage) database.getStorage().getUnderlying();
@@ -198,8 +485,10 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
 
   public Iterator<Map.Entry<Object, V>> iterator() {
     try {
-      IndexReader reader = getSearcher().getIndexReader();
-      return new OLuceneMapEntryIterator<Object, V>(reader, index);
+      final OLuceneSearcherLeases.Lease lease = leaseSearcher();
+      final Iterator<Map.Entry<Object, V>> iterator = new OLuceneMapEntryIterator<Object, V>(lease, index);
+      lease.bindTo(iterator);
+      return iterator;
 
     } catch (IOException e) {
       OLogManager.instance().error(this, "Error on creating iterator against Lucene index", e);
@@ -208,18 +497,31 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
   }
 
   public void clear() {
+    beginWrite();
     try {
+      waitForAsyncIndexing();
       mgrWriter.getIndexWriter().deleteAll();
     } catch (IOException e) {
       OLogManager.instance().error(this, "Error on clearing Lucene index", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      OLogManager.instance().error(this, "Error on clearing Lucene index", e);
+    } finally {
+      endWrite();
     }
   }
 
   @Override
   public void flush() {
+    if (!opened)
+      return;
 
     try {
-      mgrWriter.getIndexWriter().commit();
+      if (committer != null) {
+        committer.flush();
+      } else {
+        mgrWriter.getIndexWriter().commit();
+      }
     } catch (IOException e) {
       OLogManager.instance().error(this, "Error on flushing Lucene index", e);
     } catch (Throwable e) {
@@ -230,15 +532,24 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
 
   @Override
   public void close() {
+    unregisterMetrics();
     try {
-      closeIndex();
+      synchronized (openLock) {
+        if (opened)
+          closeIndex();
+      }
     } catch (Throwable e) {
       OLogManager.instance().error(this, "Error on closing Lucene index", e);
     }
   }
 
   public void rollback() {
+    if (!opened)
+      return;
+
     try {
+      if (committer != null)
+        committer.close(false);
       mgrWriter.getIndexWriter().rollback();
       reOpen(metadata);
     } catch (IOException e) {
@@ -259,18 +570,18 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
 
   public long size(final ValuesTransformer<V> transformer) {
 
-    IndexReader reader = null;
     IndexSearcher searcher = null;
     try {
-      reader = getSearcher().getIndexReader();
+      searcher = getSearcher();
+      return searcher.getIndexReader().numDocs();
     } catch (IOException e) {
       OLogManager.instance().error(this, "Error on getting size of Lucene index", e);
+      return 0;
     } finally {
       if (searcher != null) {
         release(searcher);
       }
     }
-    return reader.numDocs();
   }
 
   public void release(IndexSearcher searcher) {
@@ -346,7 +657,9 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
       this.index = indexDefinition;
 
       checkCollectionIndex(indexDefinition);
-      reOpen(metadata);
+      registerMetrics();
+      if (!getMetadataValue(LAZY_OPEN, Boolean.class, Boolean.FALSE))
+        open();
 
     } catch (IOException e) {
       OLogManager.instance().error(this, "Error on initializing Lucene index", e);
@@ -369,6 +682,17 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
     }
   }
 
+  protected <T> T getMetadataValue(final String key, final Class<T> type, final T defaultValue) {
+    if (metadata == null)
+      return defaultValue;
+
+    final Object value = metadata.field(key);
+    if (value == null)
+      return defaultValue;
+
+    return (T) OType.convert(value, type);
+  }
+
   protected Field.Store isToStore(String f) {
     return collectionFields.get(f) ? Field.Store.YES : Field.Store.NO;
   }
@@ -381,29 +705,332 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
     return collectionDelete;
   }
 
+  /**
+   * Acquires a searcher tracked by the leases of the index. Result sets hold their searcher through a lease and release it when
+   * done.
+   */
+  public OLuceneSearcherLeases.Lease leaseSearcher() throws IOException {
+    return leases.acquire();
+  }
+
+  public int getResultMaxPageSize() {
+    return getMetadataValue(LuceneResultSet.MAX_PAGE_SIZE, Integer.class, LuceneResultSet.DEFAULT_MAX_PAGE_SIZE);
+  }
+
+  public boolean isResultPrefetch() {
+    return getMetadataValue(LuceneResultSet.PREFETCH, Boolean.class, Boolean.TRUE);
+  }
+
+  /**
+   * Opens a directory of the index on disk with the factory selected by the metadata.
+   */
+  protected Directory openDirectory(File path) throws IOException {
+    return OLuceneDirectoryFactories.open(OLuceneDirectoryFactories.getName(metadata), path, metadata);
+  }
+
+  /**
+   * Creates the directory of an index of a memory database, capped by the offHeapMaxMB metadata field.
+   */
+  protected Directory createMemoryDirectory() {
+    return new OOffHeapDirectory(getMetadataValue(OOffHeapDirectory.OFF_HEAP_MAX_MB, Long.class, 0l) * 1024 * 1024);
+  }
+
+  /**
+   * Returns the directory of the facet taxonomy of a memory database. It lives as long as the index, across the reopens on
+   * rollback.
+   */
+  protected synchronized Directory getTaxonomyMemoryDirectory() {
+    if (taxonomyMemoryDirectory == null)
+      taxonomyMemoryDirectory = createMemoryDirectory();
+    return taxonomyMemoryDirectory;
+  }
+
+  /**
+   * Returns the name of the directory factory the index is opened with, "offheap" for memory databases.
+   */
+  public String getDirectoryName() {
+    return directoryName;
+  }
+
+  public OLuceneQueryCache getQueryCache() {
+    return queryCache;
+  }
+
+  public OLuceneResultCache getResultCache() {
+    return resultCache;
+  }
+
+  public OLuceneSearcherWarmer getSearcherWarmer() {
+    return warmer;
+  }
+
+  /**
+   * Preloads the structures specific to the index in a new searcher, before it is published.
+   */
+  protected void warm(IndexSearcher searcher) throws IOException {
+  }
+
+  public OLuceneSearcherLeases getSearcherLeases() {
+    return leases;
+  }
+
+  /**
+   * Returns the counters of the index followed by the process-wide ones, see {@link OLuceneMetrics}.
+   */
+  public Map<String, Object> getMetrics() {
+    final Map<String, Object> metrics = OLuceneMetrics.getIndexMetrics(this);
+    metrics.putAll(OLuceneMetrics.getGlobalMetrics());
+    return metrics;
+  }
+
+  /**
+   * Counts the hits collected by the searches of the result sets.
+   */
+  public void onHitsFetched(int hits) {
+    fetchedHits.addAndGet(hits);
+  }
+
+  public long getFetchedHits() {
+    return fetchedHits.get();
+  }
+
+  /**
+   * Counts the hits resolved to record ids by the result sets.
+   */
+  public void onHitsResolved(int hits) {
+    resolvedHits.addAndGet(hits);
+  }
+
+  public long getResolvedHits() {
+    return resolvedHits.get();
+  }
+
+  private synchronized void registerMetrics() {
+    if (profiledDatabase != null)
+      return;
+
+    profiledDatabase = getDatabase().getName();
+    OLuceneMetrics.register(this, profiledDatabase);
+  }
+
+  private synchronized void unregisterMetrics() {
+    if (profiledDatabase == null)
+      return;
+
+    OLuceneMetrics.unregister(this, profiledDatabase);
+    profiledDatabase = null;
+  }
+
+  /**
+   * Returns a searcher as fresh as required by the staleness mode of the index.
+   */
   public IndexSearcher getSearcher() throws IOException {
+    ensureOpen();
     try {
-      nrt.waitForGeneration(reopenToken);
+      switch (staleness) {
+      case STRICT:
+        if (asyncIndexer != null) {
+          // THE WRITES ARE APPLIED BY THE INDEXER THREADS: WAIT FOR ALL OF THEM
+          waitForAsyncIndexing();
+          bulkLoader.check();
+          waitForGeneration(writerEpoch, reopenToken.get());
+        } else {
+          bulkLoader.check();
+          final long[] token = threadToken.get();
+          waitForGeneration(token[0], token[1]);
+          if (token[0] != writerEpoch)
+            // WRITTEN BEFORE THE REOPEN: SEEN BY THE SEARCHERS REFRESHED ABOVE, NOTHING TO WAIT FOR ANYMORE
+            token[1] = 0;
+        }
+        break;
+      case BOUNDED:
+        bulkLoader.check();
+        if (System.currentTimeMillis() - refreshedAt > maxStaleness) {
+          waitForAsyncIndexing();
+          waitForGeneration(writerEpoch, reopenToken.get());
+        }
+        break;
+      case EVENTUAL:
+        bulkLoader.check();
+        break;
+      }
     } catch (InterruptedException e) {
       OLogManager.instance().error(this, "Error on get searcher from Lucene index", e);
     }
     return searcherManager.acquire();
   }
 
+  /**
+   * Waits for the searchers to include the generation of the writer of the given epoch. A generation of a writer replaced since
+   * means nothing to the current one: the searchers are refreshed instead, never failing the read.
+   */
+  private void waitForGeneration(long epoch, long generation) throws InterruptedException {
+    final OLuceneReopenScheduler.Reopener reopenThread = nrt;
+    if (reopenThread == null || generation <= 0)
+      return;
+    if (epoch != writerEpoch)
+      reopenThread.refresh();
+    else
+      reopenThread.waitForGeneration(generation);
+  }
+
+  public STALENESS getStaleness() {
+    return staleness;
+  }
+
   protected void closeIndex() throws IOException {
     OLogManager.instance().debug(this, "Closing Lucene index '" + this.indexName + "'...");
 
-    if (nrt != null) {
-      nrt.interrupt();
-      nrt.close();
+    if (idleCloser != null) {
+      idleCloser.cancel();
+      idleCloser = null;
+    }
+
+    if (asyncIndexer != null) {
+      asyncIndexer.close();
+      asyncIndexer = null;
     }
 
+    bulkLoader.stop();
+    stopReopen();
+
+    if (committer != null)
+      committer.close(true);
+
+    leases.releaseAll();
     if (searcherManager != null)
       searcherManager.close();
 
-    if (mgrWriter != null) {
-      mgrWriter.getIndexWriter().commit();
-      mgrWriter.getIndexWriter().close();
+    closeWriter();
+
+    if (memoryDirectory != null) {
+      memoryDirectory.close();
+      memoryDirectory = null;
+    }
+    synchronized (this) {
+      if (taxonomyMemoryDirectory != null) {
+        taxonomyMemoryDirectory.close();
+        taxonomyMemoryDirectory = null;
+      }
+    }
+    // CLEARED LAST: THE INDEXER THREADS DRAINED ABOVE STILL WRITE TO THE OPEN INDEX
+    opened = false;
+  }
+
+  /**
+   * Commits and closes the writers of the index, before their directories are closed.
+   */
+  protected void closeWriter() throws IOException {
+    final TrackingIndexWriter writer = mgrWriter;
+    // CLEARED FIRST: NOTHING MUST REACH THE WRITER ONCE ITS CLOSE STARTED
+    mgrWriter = null;
+    if (writer != null) {
+      writer.getIndexWriter().commit();
+      writer.getIndexWriter().close();
+    }
+  }
+
+  /**
+   * Opens the index on its first use. The writer, the searchers and their threads are not created when the database is opened,
+   * only when the index is read or written.
+   */
+  protected void ensureOpen() {
+    // THE ACCESS TIME IS PUBLISHED BEFORE READING THE FLAG: SEE closeIfIdle()
+    lastUsed = System.currentTimeMillis();
+    if (opened && !closing)
+      return;
+
+    synchronized (openLock) {
+      if (opened)
+        return;
+      try {
+        open();
+      } catch (IOException e) {
+        throw new OIndexException("Error on opening Lucene index '" + indexName + "'", e);
+      }
+    }
+  }
+
+  public boolean isOpened() {
+    return opened;
+  }
+
+  /**
+   * Opens the index if needed and counts the write in progress until {@link #endWrite()}, so that an idle close does not close
+   * the writer under it. The count is published before the closing flag is read, the other way round in closeIfIdle(): one of
+   * the two threads sees the other. No lock is taken, the indexer threads drained by a close still write through here.
+   */
+  protected void beginWrite() {
+    writes.incrementAndGet();
+    try {
+      ensureOpen();
+    } catch (RuntimeException e) {
+      writes.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Counts a write in progress like {@link #beginWrite()}, but only if the index is open and not being closed: returns false,
+   * counting nothing, otherwise. Used by the background work that has no reason to reopen a closed index.
+   */
+  protected boolean beginWriteIfOpened() {
+    writes.incrementAndGet();
+    if (opened && !closing)
+      return true;
+
+    writes.decrementAndGet();
+    return false;
+  }
+
+  protected void endWrite() {
+    writes.decrementAndGet();
+  }
+
+  private void open() throws IOException {
+    synchronized (openLock) {
+      OLogManager.instance().debug(this, "Opening Lucene index '%s'...", indexName);
+      reOpen(metadata);
+      lastUsed = System.currentTimeMillis();
+      opened = true;
+
+      final long idleTimeout = getMetadataValue(IDLE_TIMEOUT, Long.class, 0l);
+      if (idleTimeout > 0 && memoryDirectory == null) {
+        idleCloser = new TimerTask() {
+          @Override
+          public void run() {
+            closeIfIdle(idleTimeout);
+          }
+        };
+        IDLE_TIMER.schedule(idleCloser, idleTimeout, Math.max(1, idleTimeout / 2));
+      }
+    }
+  }
+
+  /**
+   * Closes the index if not used for the timeout, with no result set open, no write in progress and nothing pending. The closing
+   * flag is set before the access time and the writes are checked again: a thread that found the index open has published them
+   * before, and stops the close. The index stays flagged open until it is closed, so that the pending writes are still committed.
+   */
+  private void closeIfIdle(long idleTimeout) {
+    synchronized (openLock) {
+      final OLuceneAsyncIndexer indexer = asyncIndexer;
+      if (!opened || rebuilding || bulkLoader.isActive() || leases.getOpen() > 0 || (indexer != null && !indexer.isIdle())
+          || writes.get() > 0 || System.currentTimeMillis() - lastUsed <= idleTimeout)
+        return;
+
+      closing = true;
+      try {
+        if (writes.get() > 0 || System.currentTimeMillis() - lastUsed <= idleTimeout)
+          return;
+
+        OLogManager.instance().debug(this, "Closing Lucene index '%s' idle for %dms", indexName, idleTimeout);
+        closeIndex();
+      } catch (Throwable e) {
+        OLogManager.instance().error(this, "Error on closing idle Lucene index '%s'", e, indexName);
+      } finally {
+        closing = false;
+      }
     }
   }
 
@@ -415,27 +1042,90 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
     if (storageLocalAbstract instanceof OLocalPaginatedStorage) {
       String pathname = getIndexPath((OLocalPaginatedStorage) storageLocalAbstract);
 
-      OLogManager.instance().debug(this, "Opening NIOFS Lucene db=%s, path=%s", database.getName(), pathname);
+      directoryName = OLuceneDirectoryFactories.getName(metadata);
+      OLogManager.instance().debug(this, "Opening %s Lucene db=%s, path=%s", directoryName, database.getName(), pathname);
 
-      dir = NIOFSDirectory.open(new File(pathname));
+      dir = OLuceneMergeCoordinator.throttle(openDirectory(new File(pathname)));
     } else {
 
-      OLogManager.instance().debug(this, "Opening RAM Lucene index db=%s", database.getName());
-      dir = new RAMDirectory();
+      OLogManager.instance().debug(this, "Opening off-heap Lucene index db=%s", database.getName());
+      directoryName = "offheap";
+      // REOPENED ON ROLLBACK: THE DOCUMENTS OF A MEMORY DATABASE LIVE ONLY IN ITS DIRECTORY
+      if (memoryDirectory == null)
+        memoryDirectory = createMemoryDirectory();
+      dir = memoryDirectory;
 
     }
 
     final IndexWriter indexWriter = createIndexWriter(dir, metadata);
     mgrWriter = new TrackingIndexWriter(indexWriter);
-    searcherManager = new SearcherManager(indexWriter, true, null);
-    if (nrt != null) {
-      nrt.close();
+    // THE GENERATIONS OF THE NEW WRITER START AGAIN FROM 1: THE TOKENS OF THE PREVIOUS ONE WOULD NEVER BE REACHED
+    writerEpoch++;
+    reopenToken.set(0);
+    // THE ANALYZERS ARE CONFIGURED ON OPEN: THE QUERIES PARSED BEFORE ARE STALE. REPLACED BEFORE THE FIRST SEARCHER IS WARMED
+    queryCache = new OLuceneQueryCache(getMetadataValue(OLuceneQueryCache.QUERY_CACHE_SIZE, Integer.class,
+        OLuceneQueryCache.DEFAULT_QUERY_CACHE_SIZE));
+    searcherManager = new SearcherManager(indexWriter, true, new OLuceneSearcherFactory(getMetadataValue(
+        OLuceneSearcherFactory.SEARCH_THREADS, Integer.class, OLuceneSearcherFactory.DEFAULT_SEARCH_THREADS), warmer));
+    resultCache = new OLuceneResultCache(getMetadataValue(OLuceneResultCache.RESULT_CACHE_SIZE, Integer.class,
+        OLuceneResultCache.DEFAULT_RESULT_CACHE_SIZE), getMetadataValue(OLuceneResultCache.RESULT_CACHE_MAX_MB, Integer.class,
+        OLuceneResultCache.DEFAULT_RESULT_CACHE_MAX_MB));
+    searcherManager.addListener(resultCache);
+    refreshedAt = System.currentTimeMillis();
+    searcherManager.addListener(new ReferenceManager.RefreshListener() {
+      private long refreshStart;
+
+      @Override
+      public void beforeRefresh() {
+        refreshStart = System.currentTimeMillis();
+      }
+
+      @Override
+      public void afterRefresh(boolean didRefresh) {
+        // THE SEARCHER REFLECTS EVERY WRITE DONE BEFORE THE REFRESH STARTED
+        refreshedAt = refreshStart;
+      }
+    });
+    stopReopen();
+    startReopen();
+
+    concurrentWrites = getMetadataValue(CONCURRENT_WRITES, Boolean.class, Boolean.TRUE);
+    staleness = parseStaleness(getMetadataValue(STALENESS_MODE, String.class, STALENESS.STRICT.name()));
+    maxStaleness = getMetadataValue(MAX_STALENESS, Long.class, DEFAULT_MAX_STALENESS);
+    committer = new OLuceneGroupCommitter(this, getMetadataValue(OLuceneGroupCommitter.COMMIT_LATENCY, Long.class,
+        OLuceneGroupCommitter.DEFAULT_COMMIT_LATENCY), getMetadataValue(OLuceneGroupCommitter.COMMIT_BATCH_SIZE, Integer.class,
+        OLuceneGroupCommitter.DEFAULT_COMMIT_BATCH_SIZE));
+
+    if (asyncIndexer == null && getMetadataValue(OLuceneAsyncIndexer.ASYNC, Boolean.class, false)) {
+      asyncIndexer = new OLuceneAsyncIndexer(this, indexName, getMetadataValue(OLuceneAsyncIndexer.ASYNC_THREADS, Integer.class,
+          OLuceneAsyncIndexer.DEFAULT_ASYNC_THREADS), getMetadataValue(OLuceneAsyncIndexer.ASYNC_QUEUE_SIZE, Integer.class,
+          OLuceneAsyncIndexer.DEFAULT_ASYNC_QUEUE_SIZE));
+    }
+    // COMMITTED DIRECTLY: THE INDEX IS NOT FLAGGED OPEN YET, SO flush() WOULD SKIP THE FIRST COMMIT OF A NEW INDEX
+    indexWriter.commit();
+  }
+
+  private STALENESS parseStaleness(String value) {
+    try {
+      return STALENESS.valueOf(value.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      OLogManager.instance().warn(this, "Unknown staleness mode '%s' for Lucene index '%s', using %s", value, indexName,
+          STALENESS.STRICT);
+      return STALENESS.STRICT;
     }
+  }
 
-    nrt = new ControlledRealTimeReopenThread(mgrWriter, searcherManager, 60.00, 0.1);
-    nrt.setDaemon(true);
-    nrt.start();
-    flush();
+  protected void startReopen() {
+    nrt = OLuceneReopenScheduler.schedule(mgrWriter, searcherManager, getMetadataValue(OLuceneReopenScheduler.REOPEN_MAX_STALE,
+        Long.class, OLuceneReopenScheduler.DEFAULT_REOPEN_MAX_STALE), getMetadataValue(OLuceneReopenScheduler.REOPEN_MIN_STALE,
+        Long.class, OLuceneReopenScheduler.DEFAULT_REOPEN_MIN_STALE));
+  }
+
+  protected void stopReopen() {
+    final OLuceneReopenScheduler.Reopener reopenThread = nrt;
+    nrt = null;
+    if (reopenThread != null)
+      reopenThread.close();
   }
 
   public void sendTotalHits(OCommandContext context, TopDocs docs) {
@@ -488,6 +1178,15 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
     return null;
   }
 
+  /**
+   * Returns true if the result set has to load the stored fields of every hit for
+   * {@link #onRecordAddedToResultSet(QueryContext, OContextualRecordId, Document, ScoreDoc)}. Otherwise the hits are resolved
+   * by the RID doc values only, and the document passed is null.
+   */
+  public boolean isDocumentRequired(QueryContext queryContext) {
+    return false;
+  }
+
   public abstract void onRecordAddedToResultSet(QueryContext queryContext, OContextualRecordId recordId, Document ret,
       ScoreDoc score);
 
@@ -518,7 +1217,27 @@ public abstract class OLuceneIndexManagerAbstract<V> extends OSharedResourceAdap
 
   public abstract Document buildDocument(Object key, OIdentifiable value);
 
+  /**
+   * Builds the document stored in the index for the record, including the RID.
+   */
+  public abstract Document createDocument(Object key, OIdentifiable value);
+
   public abstract Query buildQuery(Object query) throws ParseException;
 
+  /**
+   * Parses the query without opening the index, for the searchers warmed while the index is being opened.
+   */
+  protected Query parseQuery(Object query) throws ParseException {
+    return buildQuery(query);
+  }
+
   public abstract Analyzer analyzer(String field);
+
+  /**
+   * How fresh the searchers must be. STRICT waits for the writes of the current thread, BOUNDED serves the current searcher if
+   * it was refreshed in the last maxStaleness milliseconds and otherwise waits for every write, EVENTUAL never waits.
+   */
+  public enum STALENESS {
+    STRICT, BOUNDED, EVENTUAL
+  }
 }
@@ -0,0 +1,217 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.orientechnologies.lucene.manager;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.RateLimitedDirectoryWrapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coordinates the merges of all the Lucene indexes of the process without ever blocking a merge thread: the global number of
+ * merge threads is shared out among the open writers, at least one each, and the global merge rate among the running merges. The
+ * rate goes from the maximum when the indexes are idle down to the minimum when the foreground writes reach the busy threshold,
+ * leaving the disk to the storage.
+ */
+public class OLuceneMergeCoordinator {
+
+  public static final String                            MERGE_MAX_THREADS           = "mergeMaxThreads";
+  public static final String                            MERGE_MAX_MB_PER_SEC        = "mergeMaxMBPerSec";
+  public static final String                            MERGE_MIN_MB_PER_SEC        = "mergeMinMBPerSec";
+  public static final String                            MERGE_BUSY_WRITES_PER_SEC   = "mergeBusyWritesPerSec";
+  public static final double                            DEFAULT_MAX_MB_PER_SEC      = 40;
+  public static final double                            DEFAULT_MIN_MB_PER_SEC      = 5;
+  public static final long                              DEFAULT_BUSY_WRITES_PER_SEC = 1000;
+
+  private static final long                             RATE_PERIOD                 = 1000;
+
+  private static final Set<OLuceneMergeScheduler>       SCHEDULERS                  = Collections
+                                                                                        .newSetFromMap(new WeakHashMap<OLuceneMergeScheduler, Boolean>());
+  private static final Set<RateLimitedDirectoryWrapper> DIRECTORIES                 = Collections
+                                                                                        .newSetFromMap(new WeakHashMap<RateLimitedDirectoryWrapper, Boolean>());
+  private static final AtomicLong                       WRITES                      = new AtomicLong();
+  private static final Timer                            RATE_TIMER                  = new Timer(
+                                                                                        "OrientDB Lucene Merge Throttler", true);
+
+  private static int                                    maxMerges                   = Math.max(1, Runtime.getRuntime()
+                                                                                        .availableProcessors() / 2);
+  private static int                                    threadsPerWriter            = maxMerges;
+  private static int                                    running;
+  private static volatile double                        maxMBPerSec                 = DEFAULT_MAX_MB_PER_SEC;
+  private static volatile double                        minMBPerSec                 = DEFAULT_MIN_MB_PER_SEC;
+  private static volatile long                          busyWritesPerSec            = DEFAULT_BUSY_WRITES_PER_SEC;
+  private static volatile double                        mbPerSec                    = DEFAULT_MAX_MB_PER_SEC;
+
+  static {
+    RATE_TIMER.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        adaptRate(WRITES.getAndSet(0) * 1000 / RATE_PERIOD);
+      }
+    }, RATE_PERIOD, RATE_PERIOD);
+  }
+
+  private OLuceneMergeCoordinator() {
+  }
+
+  /**
+   * Returns a merge scheduler for a new IndexWriter, with its share of the global merge threads.
+   */
+  public static ConcurrentMergeScheduler newMergeScheduler() {
+    final OLuceneMergeScheduler scheduler = new OLuceneMergeScheduler();
+    synchronized (OLuceneMergeCoordinator.class) {
+      SCHEDULERS.add(scheduler);
+      shareThreads();
+    }
+    return scheduler;
+  }
+
+  /**
+   * Wraps the directory of an index so that its merges are written at its share of the global rate.
+   */
+  public static Directory throttle(Directory directory) {
+    final RateLimitedDirectoryWrapper wrapper = new RateLimitedDirectoryWrapper(directory);
+    synchronized (OLuceneMergeCoordinator.class) {
+      wrapper.setMaxWriteMBPerSec(getMergeMBPerSec(), IOContext.Context.MERGE);
+      synchronized (DIRECTORIES) {
+        DIRECTORIES.add(wrapper);
+      }
+    }
+    return wrapper;
+  }
+
+  /**
+   * Accounts a foreground write, driving the merge rate down.
+   */
+  public static void recordWrite() {
+    WRITES.incrementAndGet();
+  }
+
+  public static synchronized void setMaxMerges(int maxMerges) {
+    OLuceneMergeCoordinator.maxMerges = Math.max(1, maxMerges);
+    shareThreads();
+  }
+
+  public static void setRate(double maxMBPerSec, double minMBPerSec, long busyWritesPerSec) {
+    OLuceneMergeCoordinator.maxMBPerSec = maxMBPerSec;
+    OLuceneMergeCoordinator.minMBPerSec = Math.min(minMBPerSec, maxMBPerSec);
+    OLuceneMergeCoordinator.busyWritesPerSec = Math.max(1, busyWritesPerSec);
+  }
+
+  public static synchronized int getRunningMerges() {
+    return running;
+  }
+
+  /**
+   * Returns the merge threads each open writer may run at once.
+   */
+  public static synchronized int getThreadsPerWriter() {
+    return threadsPerWriter;
+  }
+
+  /**
+   * Returns the current write rate of all the merges together in MB/s.
+   */
+  public static double getMBPerSec() {
+    return mbPerSec;
+  }
+
+  /**
+   * Returns the write rate of each running merge in MB/s: the global rate shared among them.
+   */
+  public static synchronized double getMergeMBPerSec() {
+    return mbPerSec / Math.max(1, running);
+  }
+
+  private static void adaptRate(long writesPerSec) {
+    final double load = Math.min(1, (double) writesPerSec / busyWritesPerSec);
+    final double rate = maxMBPerSec - (maxMBPerSec - minMBPerSec) * load;
+    if (Math.abs(rate - mbPerSec) < 0.5)
+      return;
+
+    synchronized (OLuceneMergeCoordinator.class) {
+      mbPerSec = rate;
+      shareRate();
+    }
+  }
+
+  /**
+   * Gives every open writer the same share of the global merge threads, at least one: a writer never waits for the merges of
+   * another index, so its indexing threads are only stalled by its own merges, as Lucene does.
+   */
+  private static void shareThreads() {
+    // CALLED UNDER THE LOCK OF THE CLASS, LIKE EVERY ACCESS TO THE SCHEDULERS
+    final List<OLuceneMergeScheduler> schedulers = new ArrayList<OLuceneMergeScheduler>(SCHEDULERS);
+    threadsPerWriter = Math.max(1, maxMerges / Math.max(1, schedulers.size()));
+    for (OLuceneMergeScheduler scheduler : schedulers)
+      scheduler.setMaxMergesAndThreads(threadsPerWriter + 1, threadsPerWriter);
+  }
+
+  private static void shareRate() {
+    final double rate = getMergeMBPerSec();
+    synchronized (DIRECTORIES) {
+      for (RateLimitedDirectoryWrapper directory : DIRECTORIES)
+        directory.setMaxWriteMBPerSec(rate, IOContext.Context.MERGE);
+    }
+  }
+
+  private static synchronized void onMergeStarted() {
+    running++;
+    shareRate();
+  }
+
+  private static synchronized void onMergeEnded() {
+    running--;
+    shareRate();
+  }
+
+  private static synchronized void onClose(OLuceneMergeScheduler scheduler) {
+    SCHEDULERS.remove(scheduler);
+    shareThreads();
+  }
+
+  private static class OLuceneMergeScheduler extends ConcurrentMergeScheduler {
+    @Override
+    protected void doMerge(MergePolicy.OneMerge merge) throws IOException {
+      onMergeStarted();
+      try {
+        super.doMerge(merge);
+      } finally {
+        onMergeEnded();
+      }
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      onClose(this);
+    }
+  }
+}
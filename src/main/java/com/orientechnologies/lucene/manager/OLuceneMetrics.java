@@ -0,0 +1,147 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.orientechnologies.lucene.manager;
+
+import com.orientechnologies.common.profiler.OAbstractProfiler.OProfilerHookValue;
+import com.orientechnologies.common.profiler.OProfiler.METRIC_TYPE;
+import com.orientechnologies.lucene.directory.OOffHeapDirectory;
+import com.orientechnologies.lucene.query.OLuceneQueryCache;
+import com.orientechnologies.lucene.query.OLuceneResultCache;
+import com.orientechnologies.orient.core.Orient;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.store.AlreadyClosedException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects the counters of the Lucene indexes: searcher leases and caches per index, reopen lag, merges and off-heap memory
+ * for the whole process. They are returned by {@link com.orientechnologies.lucene.OLuceneIndexEngine#getMetrics()} and
+ * published to the profiler as <code>db.&lt;database&gt;.lucene.&lt;index&gt;.*</code> and <code>lucene.*</code>.
+ */
+public class OLuceneMetrics {
+
+  private static final AtomicBoolean GLOBAL_REGISTERED = new AtomicBoolean();
+
+  /**
+   * Returns the counters of the index, all of them even if the index is not open yet.
+   */
+  public static Map<String, Object> getIndexMetrics(final OLuceneIndexManagerAbstract manager) {
+    final Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+    // 1 WHILE THE WRITER AND THE SEARCHERS ARE OPEN, 0 BEFORE THE FIRST USE AND AFTER AN IDLE CLOSE
+    metrics.put("index.open", manager.isOpened() ? 1 : 0);
+    // 1 WHILE A DATABASE WRITING TO THE INDEX DECLARES THE MASSIVE INSERT INTENT
+    metrics.put("bulk.active", manager.bulkLoader.isActive() ? 1 : 0);
+    metrics.put("writer.ramBufferMB", getRAMBufferSizeMB(manager));
+
+    final OLuceneGroupCommitter committer = manager.committer;
+    metrics.put("commit.pending", committer != null ? committer.getPending() : 0);
+    metrics.put("commit.count", committer != null ? committer.getCommits() : 0l);
+
+    final OLuceneSearcherLeases leases = manager.getSearcherLeases();
+    metrics.put("leases.open", leases.getOpen());
+    metrics.put("leases.acquired", leases.getAcquired());
+    metrics.put("leases.released", leases.getReleased());
+    metrics.put("leases.reclaimed", leases.getLeaked());
+    metrics.put("leases.oldestAge", leases.getOldestAge());
+
+    metrics.put("hits.fetched", manager.getFetchedHits());
+    metrics.put("hits.resolved", manager.getResolvedHits());
+
+    final OLuceneQueryCache queryCache = manager.getQueryCache();
+    metrics.put("queryCache.size", queryCache != null ? queryCache.size() : 0);
+    metrics.put("queryCache.hits", queryCache != null ? queryCache.getHits() : 0l);
+    metrics.put("queryCache.misses", queryCache != null ? queryCache.getMisses() : 0l);
+
+    final OLuceneResultCache resultCache = manager.getResultCache();
+    metrics.put("resultCache.size", resultCache != null ? resultCache.size() : 0);
+    metrics.put("resultCache.bytes", resultCache != null ? resultCache.getBytes() : 0l);
+    metrics.put("resultCache.hits", resultCache != null ? resultCache.getHits() : 0l);
+    metrics.put("resultCache.misses", resultCache != null ? resultCache.getMisses() : 0l);
+    metrics.put("resultCache.invalidations", resultCache != null ? resultCache.getInvalidations() : 0l);
+    return metrics;
+  }
+
+  private static double getRAMBufferSizeMB(final OLuceneIndexManagerAbstract manager) {
+    final TrackingIndexWriter writer = manager.mgrWriter;
+    if (writer == null)
+      return 0;
+    try {
+      return writer.getIndexWriter().getConfig().getRAMBufferSizeMB();
+    } catch (AlreadyClosedException e) {
+      // CLOSED MEANWHILE
+      return 0;
+    }
+  }
+
+  /**
+   * Returns the counters shared by all the indexes of the process.
+   */
+  public static Map<String, Object> getGlobalMetrics() {
+    final Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+    metrics.put("reopen.averageLag", OLuceneReopenScheduler.getAverageLag());
+    metrics.put("reopen.maxLag", OLuceneReopenScheduler.getMaxLag());
+    metrics.put("reopen.pending", OLuceneReopenScheduler.getPendingRefreshes());
+    metrics.put("merge.running", OLuceneMergeCoordinator.getRunningMerges());
+    metrics.put("merge.threadsPerWriter", OLuceneMergeCoordinator.getThreadsPerWriter());
+    metrics.put("merge.mbPerSec", OLuceneMergeCoordinator.getMBPerSec());
+    metrics.put("offHeap.allocated", OOffHeapDirectory.getGlobalAllocated());
+    return metrics;
+  }
+
+  /**
+   * Publishes the counters of the index to the profiler, and the process ones the first time.
+   */
+  public static void register(final OLuceneIndexManagerAbstract manager, final String databaseName) {
+    if (GLOBAL_REGISTERED.compareAndSet(false, true)) {
+      for (final String metric : getGlobalMetrics().keySet()) {
+        Orient.instance().getProfiler().registerHookValue("lucene." + metric, "Lucene " + metric, METRIC_TYPE.SIZE,
+            new OProfilerHookValue() {
+              @Override
+              public Object getValue() {
+                return getGlobalMetrics().get(metric);
+              }
+            });
+      }
+    }
+
+    final String prefix = getPrefix(manager, databaseName);
+    for (final String metric : getIndexMetrics(manager).keySet()) {
+      Orient.instance().getProfiler().registerHookValue(prefix + metric, "Lucene index " + metric, METRIC_TYPE.SIZE,
+          new OProfilerHookValue() {
+            @Override
+            public Object getValue() {
+              return getIndexMetrics(manager).get(metric);
+            }
+          });
+    }
+  }
+
+  public static void unregister(final OLuceneIndexManagerAbstract manager, final String databaseName) {
+    final String prefix = getPrefix(manager, databaseName);
+    for (final String metric : getIndexMetrics(manager).keySet()) {
+      Orient.instance().getProfiler().unregisterHookValue(prefix + metric);
+    }
+  }
+
+  private static String getPrefix(final OLuceneIndexManagerAbstract manager, final String databaseName) {
+    return "db." + databaseName + ".lucene." + manager.indexName + ".";
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.orientechnologies.lucene.manager;
+
+import com.orientechnologies.common.log.OLogManager;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherManager;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reopens the near real time searchers of all the Lucene indexes on a pool sized on the cores, in place of a thread per index.
+ * Every index is refreshed at the latest after its maximum staleness; a reader waiting for a generation not yet searchable
+ * brings the refresh forward to its minimum staleness. The pool runs the refreshes by deadline, so the indexes with waiting
+ * readers go first.
+ */
+public class OLuceneReopenScheduler {
+
+  public static final String                       REOPEN_MAX_STALE         = "reopenMaxStale";
+  public static final String                       REOPEN_MIN_STALE         = "reopenMinStale";
+  public static final long                         DEFAULT_REOPEN_MAX_STALE = 60000;
+  public static final long                         DEFAULT_REOPEN_MIN_STALE = 100;
+
+  private static final ScheduledThreadPoolExecutor REOPENERS                = createReopeners();
+  private static final AtomicLong                  REFRESHES                = new AtomicLong();
+  private static final AtomicLong                  TOTAL_LAG                = new AtomicLong();
+  private static final AtomicLong                  MAX_LAG                  = new AtomicLong();
+
+  private OLuceneReopenScheduler() {
+  }
+
+  /**
+   * Starts refreshing the searchers of the manager with the given staleness targets, in milliseconds.
+   */
+  public static Reopener schedule(TrackingIndexWriter writer, SearcherManager manager, long maxStale, long minStale) {
+    final Reopener reopener = new Reopener(writer, manager, maxStale, minStale);
+    manager.addListener(reopener);
+    synchronized (reopener) {
+      reopener.scheduleAt(System.currentTimeMillis() + maxStale);
+    }
+    return reopener;
+  }
+
+  /**
+   * Returns the average delay between the time a refresh was due and the time it started, in milliseconds.
+   */
+  public static long getAverageLag() {
+    final long refreshes = REFRESHES.get();
+    return refreshes == 0 ? 0 : TOTAL_LAG.get() / refreshes;
+  }
+
+  /**
+   * Returns the longest delay between the time a refresh was due and the time it started, in milliseconds.
+   */
+  public static long getMaxLag() {
+    return MAX_LAG.get();
+  }
+
+  public static int getPendingRefreshes() {
+    return REOPENERS.getQueue().size();
+  }
+
+  private static void recordLag(long lag) {
+    REFRESHES.incrementAndGet();
+    TOTAL_LAG.addAndGet(lag);
+    long max = MAX_LAG.get();
+    while (lag > max && !MAX_LAG.compareAndSet(max, lag))
+      max = MAX_LAG.get();
+  }
+
+  private static ScheduledThreadPoolExecutor createReopeners() {
+    final AtomicInteger counter = new AtomicInteger();
+    final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(Math.max(2,
+        Runtime.getRuntime().availableProcessors() / 2), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread thread = new Thread(r, "OrientDB Lucene Reopener " + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    return executor;
+  }
+
+  /**
+   * Refreshes the searchers of one index and lets the readers wait for a generation of its writer.
+   */
+  public static class Reopener implements Runnable, ReferenceManager.RefreshListener {
+    private final TrackingIndexWriter writer;
+    private final SearcherManager     manager;
+    private final long                maxStale;
+    private final long                minStale;
+    private volatile long             searchingGen;
+    private long                      refreshStartGen;
+    private long                      lastRefresh;
+    private int                       waiters;
+    private ScheduledFuture<?>        next;
+    private long                      nextAt;
+    private boolean                   closed;
+
+    private Reopener(TrackingIndexWriter writer, SearcherManager manager, long maxStale, long minStale) {
+      this.writer = writer;
+      this.manager = manager;
+      this.maxStale = maxStale;
+      this.minStale = Math.min(minStale, maxStale);
+      this.lastRefresh = System.currentTimeMillis();
+    }
+
+    /**
+     * Blocks until the searchers include the changes up to the generation. A generation the writer did not return yet, like a
+     * token of a previous writer of the index, cannot be waited for: the searchers are refreshed to everything written so far.
+     */
+    public void waitForGeneration(long generation) throws InterruptedException {
+      if (searchingGen >= generation)
+        return;
+
+      if (generation > writer.getGeneration()) {
+        refresh();
+        return;
+      }
+
+      synchronized (this) {
+        waiters++;
+        try {
+          expedite();
+          while (searchingGen < generation && !closed)
+            wait();
+        } finally {
+          waiters--;
+        }
+      }
+    }
+
+    /**
+     * Refreshes the searchers now to include every change written so far, on the thread of the caller.
+     */
+    public void refresh() {
+      synchronized (this) {
+        if (closed)
+          return;
+      }
+      try {
+        manager.maybeRefreshBlocking();
+      } catch (IOException e) {
+        OLogManager.instance().error(this, "Error on refreshing Lucene searcher", e);
+      } catch (RuntimeException e) {
+        // CLOSED MEANWHILE: THE READER GETS THE SEARCHERS OF THE NEXT OPEN
+        OLogManager.instance().debug(this, "Lucene searcher not refreshed: %s", e.getMessage());
+      }
+    }
+
+    public long getSearchingGen() {
+      return searchingGen;
+    }
+
+    public synchronized void close() {
+      closed = true;
+      if (next != null) {
+        cancel(next);
+        next = null;
+      }
+      manager.removeListener(this);
+      notifyAll();
+    }
+
+    @Override
+    public void run() {
+      final long start = System.currentTimeMillis();
+      synchronized (this) {
+        if (closed)
+          return;
+        next = null;
+        recordLag(Math.max(0, start - nextAt));
+      }
+
+      try {
+        manager.maybeRefreshBlocking();
+      } catch (IOException e) {
+        OLogManager.instance().error(this, "Error on refreshing Lucene searcher", e);
+      } catch (RuntimeException e) {
+        OLogManager.instance().error(this, "Error on refreshing Lucene searcher", e);
+      }
+
+      synchronized (this) {
+        lastRefresh = start;
+        if (!closed)
+          scheduleAt(start + (waiters > 0 ? minStale : maxStale));
+      }
+    }
+
+    @Override
+    public void beforeRefresh() {
+      refreshStartGen = writer.getAndIncrementGeneration();
+    }
+
+    @Override
+    public void afterRefresh(boolean didRefresh) {
+      synchronized (this) {
+        searchingGen = refreshStartGen;
+        notifyAll();
+      }
+    }
+
+    /**
+     * Brings the next refresh forward to the minimum staleness. A refresh already running reschedules itself at the end.
+     */
+    private void expedite() {
+      if (next == null || closed)
+        return;
+
+      final long target = lastRefresh + minStale;
+      if (nextAt > target && cancel(next))
+        scheduleAt(target);
+    }
+
+    /**
+     * Cancels the refresh and removes it from the queue of the pool, where it would otherwise stay until its deadline.
+     */
+    private static boolean cancel(ScheduledFuture<?> refresh) {
+      final boolean cancelled = refresh.cancel(false);
+      REOPENERS.remove((Runnable) refresh);
+      return cancelled;
+    }
+
+    private void scheduleAt(long time) {
+      nextAt = time;
+      next = REOPENERS.schedule(this, Math.max(0, time - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+  }
+}
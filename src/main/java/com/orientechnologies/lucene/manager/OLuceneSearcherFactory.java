@@ -0,0 +1,148 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.orientechnologies.lucene.manager;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds searchers that search the segments of the index in parallel on a pool shared by all the Lucene indexes. The pool is
+ * capped at one thread per core and runs the task in the caller when saturated; each index further limits how many of its
+ * segments are searched concurrently, running the exceeding ones in the caller as well.
+ */
+public class OLuceneSearcherFactory extends SearcherFactory {
+
+  public static final String                SEARCH_THREADS         = "searchThreads";
+  public static final int                   DEFAULT_SEARCH_THREADS = 0;
+
+  private static final int                  SHARED_THREADS         = Runtime.getRuntime().availableProcessors();
+  private static final ThreadPoolExecutor   SEARCHERS              = createSearchers();
+
+  private final SegmentExecutor             executor;
+  private final OLuceneSearcherWarmer       warmer;
+
+  /**
+   * @param threads
+   *          maximum number of segments of the index searched concurrently, 0 or 1 to search them in the caller thread only
+   * @param warmer
+   *          warms the new searchers before they are published, can be null
+   */
+  public OLuceneSearcherFactory(int threads, OLuceneSearcherWarmer warmer) {
+    this.executor = threads > 1 ? new SegmentExecutor(Math.min(threads, SHARED_THREADS)) : null;
+    this.warmer = warmer;
+  }
+
+  @Override
+  public IndexSearcher newSearcher(IndexReader reader) {
+    final IndexSearcher searcher;
+    if (executor == null || reader.leaves().size() < 2)
+      searcher = new IndexSearcher(reader);
+    else
+      searcher = new IndexSearcher(reader, executor);
+
+    if (warmer != null)
+      warmer.warm(searcher);
+    return searcher;
+  }
+
+  private static ThreadPoolExecutor createSearchers() {
+    final AtomicInteger counter = new AtomicInteger();
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(SHARED_THREADS, SHARED_THREADS, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(SHARED_THREADS * 16), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "OrientDB Lucene Searcher " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * View of the shared pool limited to the permits of one index. Shutting it down has no effect on the shared pool.
+   */
+  private static class SegmentExecutor extends AbstractExecutorService {
+    private final Semaphore permits;
+
+    private SegmentExecutor(int threads) {
+      this.permits = new Semaphore(threads);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+      if (!permits.tryAcquire()) {
+        command.run();
+        return;
+      }
+
+      try {
+        SEARCHERS.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              command.run();
+            } finally {
+              permits.release();
+            }
+          }
+        });
+      } catch (RuntimeException e) {
+        permits.release();
+        throw e;
+      }
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return false;
+    }
+  }
+}
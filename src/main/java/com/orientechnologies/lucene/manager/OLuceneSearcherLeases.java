@@ -0,0 +1,226 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.orientechnologies.lucene.manager;
+
+import com.orientechnologies.common.log.OLogManager;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the searchers acquired from a Lucene index. Every searcher is handed out as a {@link Lease}, usually bound to a holder
+ * like a result set: the lease is released by the holder when done, or reclaimed once the holder is garbage collected without
+ * releasing it, which is normal for a result set abandoned half way. An unreleased searcher pins old segments and their files.
+ * With the {@link #LEASE_DEBUG} metadata flag the stack of every acquisition is recorded and logged with the reclaimed leases.
+ */
+public class OLuceneSearcherLeases {
+
+  public static final String                LEASE_DEBUG = "leaseDebug";
+
+  private final OLuceneIndexManagerAbstract owner;
+  private final Set<Lease>                  open      = Collections.newSetFromMap(new ConcurrentHashMap<Lease, Boolean>());
+  private final ReferenceQueue<Object>      abandoned = new ReferenceQueue<Object>();
+  private final AtomicLong                  acquired  = new AtomicLong();
+  private final AtomicLong                  released  = new AtomicLong();
+  private final AtomicLong                  leaked    = new AtomicLong();
+
+  public OLuceneSearcherLeases(OLuceneIndexManagerAbstract owner) {
+    this.owner = owner;
+  }
+
+  /**
+   * Acquires a searcher. The caller must release the lease or bind it to a holder, otherwise it stays open until the index is
+   * closed.
+   */
+  public Lease acquire() throws IOException {
+    reclaim();
+
+    final boolean debug = owner.getMetadataValue(LEASE_DEBUG, Boolean.class, Boolean.FALSE);
+    final Lease lease = new Lease(this, owner.getSearcher(), debug ? new Throwable() : null);
+    open.add(lease);
+    acquired.incrementAndGet();
+    return lease;
+  }
+
+  /**
+   * Releases the leases whose holder was garbage collected without releasing them.
+   */
+  public void reclaim() {
+    HolderReference reference;
+    while ((reference = (HolderReference) abandoned.poll()) != null) {
+      final Lease lease = reference.lease;
+      if (lease.doRelease()) {
+        leaked.incrementAndGet();
+        if (OLogManager.instance().isDebugEnabled())
+          OLogManager.instance().debug(this, "Searcher of Lucene index '%s' reclaimed after %dms%s", owner.indexName,
+              lease.getAge(), format(lease.getStack()));
+      }
+    }
+  }
+
+  /**
+   * Releases all the leases still open, reporting them. Called when the index is closed.
+   */
+  public void releaseAll() {
+    reclaim();
+    for (Lease lease : new ArrayList<Lease>(open)) {
+      if (lease.doRelease())
+        OLogManager.instance().debug(this, "Searcher of Lucene index '%s' still in use on close since %dms%s", owner.indexName,
+            lease.getAge(), format(lease.getStack()));
+    }
+  }
+
+  public int getOpen() {
+    return open.size();
+  }
+
+  public long getAcquired() {
+    return acquired.get();
+  }
+
+  public long getReleased() {
+    return released.get();
+  }
+
+  /**
+   * Returns the leases reclaimed after their holder was garbage collected without releasing them.
+   */
+  public long getLeaked() {
+    return leaked.get();
+  }
+
+  /**
+   * Returns the age in milliseconds of the oldest open lease, 0 if none.
+   */
+  public long getOldestAge() {
+    long oldest = 0;
+    for (Lease lease : open) {
+      oldest = Math.max(oldest, lease.getAge());
+    }
+    return oldest;
+  }
+
+  /**
+   * Returns the open leases older than the age in milliseconds, with the stack of their acquisition if recorded.
+   */
+  public List<Lease> getOpenLeases(long minAge) {
+    final List<Lease> leases = new ArrayList<Lease>();
+    for (Lease lease : open) {
+      if (lease.getAge() >= minAge)
+        leases.add(lease);
+    }
+    return leases;
+  }
+
+  private static String format(Throwable stack) {
+    if (stack == null)
+      return "";
+
+    final StringBuilder builder = new StringBuilder(", acquired at:\n");
+    for (StackTraceElement element : stack.getStackTrace()) {
+      builder.append("\tat ").append(element).append('\n');
+    }
+    return builder.toString();
+  }
+
+  public static final class Lease {
+    private final OLuceneSearcherLeases leases;
+    private final IndexSearcher         searcher;
+    private volatile HolderReference    holder;
+    private final long                  acquiredAt = System.currentTimeMillis();
+    private final Throwable             stack;
+    private final AtomicBoolean         released   = new AtomicBoolean();
+
+    private Lease(OLuceneSearcherLeases leases, IndexSearcher searcher, Throwable stack) {
+      this.leases = leases;
+      this.searcher = searcher;
+      this.stack = stack;
+    }
+
+    /**
+     * Binds the lease to its holder: if the holder is garbage collected before releasing it, the lease is reclaimed.
+     */
+    public Lease bindTo(Object holder) {
+      this.holder = new HolderReference(holder, this, leases.abandoned);
+      return this;
+    }
+
+    public IndexSearcher getSearcher() {
+      return searcher;
+    }
+
+    public long getAge() {
+      return System.currentTimeMillis() - acquiredAt;
+    }
+
+    /**
+     * Returns the stack of the acquisition, null unless {@link #LEASE_DEBUG} is set.
+     */
+    public Throwable getStack() {
+      return stack;
+    }
+
+    public boolean isReleased() {
+      return released.get();
+    }
+
+    /**
+     * Gives the searcher back to the index. Releasing more than once has no effect.
+     */
+    public void release() {
+      if (doRelease())
+        leases.released.incrementAndGet();
+    }
+
+    private boolean doRelease() {
+      if (!released.compareAndSet(false, true))
+        return false;
+
+      final HolderReference reference = holder;
+      if (reference != null)
+        reference.clear();
+      leases.open.remove(this);
+      try {
+        // SAME AS SearcherManager.release(), WITHOUT DEPENDING ON THE MANAGER THAT MAY HAVE BEEN REOPENED SINCE
+        searcher.getIndexReader().decRef();
+      } catch (IOException e) {
+        OLogManager.instance().error(this, "Error on releasing searcher of Lucene index", e);
+      }
+      return true;
+    }
+  }
+
+  private static final class HolderReference extends WeakReference<Object> {
+    private final Lease lease;
+
+    private HolderReference(Object holder, Lease lease, ReferenceQueue<Object> queue) {
+      super(holder, queue);
+      this.lease = lease;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.orientechnologies.lucene.manager;
+
+import com.orientechnologies.common.log.OLogManager;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Warms the searchers of an index before they are published: loads the norms of the indexed fields, runs the warm-up sorts and
+ * queries, registered or listed in the index metadata, and lets the index preload its own structures. The segments shared
+ * with the previous searcher are already loaded, so only the new ones pay.
+ */
+public class OLuceneSearcherWarmer {
+
+  public static final String                WARMING          = "warming";
+  public static final String                WARM_QUERIES     = "warmQueries";
+  public static final String                WARM_SORT_FIELDS = "warmSortFields";
+
+  private static final int                  WARM_HITS        = 10;
+
+  private final OLuceneIndexManagerAbstract owner;
+  private final List<Query>                 queries          = new CopyOnWriteArrayList<Query>();
+  private final List<Sort>                  sorts            = new CopyOnWriteArrayList<Sort>();
+
+  public OLuceneSearcherWarmer(OLuceneIndexManagerAbstract owner) {
+    this.owner = owner;
+  }
+
+  public void addQuery(Query query) {
+    queries.add(query);
+  }
+
+  public void addSort(Sort sort) {
+    sorts.add(sort);
+  }
+
+  public void warm(IndexSearcher searcher) {
+    if (!owner.getMetadataValue(WARMING, Boolean.class, Boolean.TRUE))
+      return;
+
+    final long start = System.currentTimeMillis();
+    try {
+      warmNorms(searcher);
+
+      for (Sort sort : sorts)
+        searcher.search(new MatchAllDocsQuery(), WARM_HITS, sort);
+      for (Sort sort : getMetadataSorts())
+        searcher.search(new MatchAllDocsQuery(), WARM_HITS, sort);
+
+      for (Query query : queries)
+        searcher.search(query, WARM_HITS);
+      for (Query query : getMetadataQueries())
+        searcher.search(query, WARM_HITS);
+
+      owner.warm(searcher);
+    } catch (IOException e) {
+      OLogManager.instance().error(this, "Error on warming searcher of Lucene index '%s'", e, owner.indexName);
+    } catch (RuntimeException e) {
+      OLogManager.instance().error(this, "Error on warming searcher of Lucene index '%s'", e, owner.indexName);
+    }
+
+    OLogManager.instance().debug(this, "Warmed searcher of Lucene index '%s' in %dms", owner.indexName,
+        System.currentTimeMillis() - start);
+  }
+
+  private void warmNorms(IndexSearcher searcher) throws IOException {
+    if (owner.index == null)
+      return;
+
+    for (AtomicReaderContext leaf : searcher.getIndexReader().leaves()) {
+      for (String field : owner.index.getFields())
+        leaf.reader().getNormValues(field);
+    }
+  }
+
+  /**
+   * Returns the sorts listed in the metadata as "field" or "field:TYPE", where TYPE is a {@link SortField.Type}.
+   */
+  private List<Sort> getMetadataSorts() {
+    final List<Sort> sorts = new ArrayList<Sort>();
+    for (String field : getMetadataList(WARM_SORT_FIELDS)) {
+      final int separator = field.lastIndexOf(':');
+      if (separator < 0)
+        sorts.add(new Sort(new SortField(field, SortField.Type.STRING)));
+      else
+        sorts.add(new Sort(new SortField(field.substring(0, separator), SortField.Type.valueOf(field.substring(separator + 1)
+            .toUpperCase()))));
+    }
+    return sorts;
+  }
+
+  private List<Query> getMetadataQueries() {
+    final List<Query> queries = new ArrayList<Query>();
+    for (String text : getMetadataList(WARM_QUERIES)) {
+      try {
+        // CALLED WHILE THE INDEX IS OPENED: IT MUST NOT TRY TO OPEN IT AGAIN
+        final Query query = owner.parseQuery(text);
+        if (query != null)
+          queries.add(query);
+      } catch (Exception e) {
+        OLogManager.instance().warn(this, "Invalid warm-up query '%s' for Lucene index '%s'", text, owner.indexName);
+      }
+    }
+    return queries;
+  }
+
+  private List<String> getMetadataList(String key) {
+    final List<String> values = new ArrayList<String>();
+    final Object value = owner.metadata != null ? owner.metadata.field(key) : null;
+    if (value instanceof Collection) {
+      for (Object item : (Collection<?>) value)
+        if (item != null)
+          values.add(item.toString());
+    } else if (value != null)
+      values.add(value.toString());
+    return values;
+  }
+}
@@ -18,6 +18,7 @@ package com.orientechnologies.lucene.manager;
 
 import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.lucene.OLuceneIndexType;
+import com.orientechnologies.lucene.collections.LuceneIndexCursor;
 import com.orientechnologies.lucene.collections.LuceneResultSet;
 import com.orientechnologies.lucene.collections.OSpatialCompositeKey;
 import com.orientechnologies.lucene.query.QueryContext;
@@ -29,6 +30,7 @@ import com.orientechnologies.orient.core.id.OContextualRecordId;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.index.OCompositeKey;
 import com.orientechnologies.orient.core.index.OIndexCursor;
+import com.orientechnologies.orient.core.index.OIndexException;
 import com.orientechnologies.orient.core.index.OIndexKeyCursor;
 import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.impl.ODocument;
@@ -41,6 +43,7 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexableField;
@@ -80,6 +83,7 @@ public class OLuceneSpatialIndexManager extends OLuceneIndexManagerAbstract {
     Version version = getLuceneVersion(metadata);
     IndexWriterConfig iwc = new IndexWriterConfig(version, analyzer);
     iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+    iwc.setMergeScheduler(OLuceneMergeCoordinator.newMergeScheduler());
     return new IndexWriter(directory, iwc);
   }
 
@@ -89,6 +93,7 @@ public class OLuceneSpatialIndexManager extends OLuceneIndexManagerAbstract {
     Version version = getLuceneVersion(metadata);
     IndexWriterConfig iwc = new IndexWriterConfig(version, analyzer);
     iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+    iwc.setMergeScheduler(OLuceneMergeCoordinator.newMergeScheduler());
     return new IndexWriter(directory, iwc);
   }
 
@@ -135,6 +140,16 @@ public class OLuceneSpatialIndexManager extends OLuceneIndexManagerAbstract {
     return null;
   }
 
+  /**
+   * Loads the per-segment shape caches read by the distance sort of {@link #searchIntersect}.
+   */
+  @Override
+  protected void warm(IndexSearcher searcher) throws IOException {
+    final ValueSource valueSource = strategy.makeDistanceValueSource(ctx.makePoint(0, 0));
+    for (AtomicReaderContext leaf : searcher.getIndexReader().leaves())
+      valueSource.getValues(new HashMap<Object, Object>(), leaf);
+  }
+
   public Object searchIntersect(OCompositeKey key, double distance, OCommandContext context) throws IOException {
 
     double lat = ((Double) OType.convert(((OCompositeKey) key).getKeys().get(0), Double.class)).doubleValue();
@@ -145,12 +160,18 @@ public class OLuceneSpatialIndexManager extends OLuceneIndexManagerAbstract {
     SpatialArgs args = new SpatialArgs(operation, ctx.makeCircle(lng, lat,
         DistanceUtils.dist2Degrees(distance, DistanceUtils.EARTH_MEAN_RADIUS_KM)));
     Filter filter = strategy.makeFilter(args);
-    IndexSearcher searcher = getSearcher();
-    ValueSource valueSource = strategy.makeDistanceValueSource(p);
-    Sort distSort = new Sort(valueSource.getSortField(false)).rewrite(searcher);
+    OLuceneSearcherLeases.Lease lease = leaseSearcher();
+    try {
+      IndexSearcher searcher = lease.getSearcher();
+      ValueSource valueSource = strategy.makeDistanceValueSource(p);
+      Sort distSort = new Sort(valueSource.getSortField(false)).rewrite(searcher);
 
-    return new LuceneResultSet(this,
-        new SpatialQueryContext(context, searcher, new MatchAllDocsQuery(), filter, distSort).setSpatialArgs(args));
+      return new LuceneResultSet(this, new SpatialQueryContext(context, searcher, new MatchAllDocsQuery(), filter, distSort)
+          .setSpatialArgs(args), lease);
+    } catch (IOException e) {
+      lease.release();
+      throw e;
+    }
   }
 
   @Override
@@ -169,11 +190,22 @@ public class OLuceneSpatialIndexManager extends OLuceneIndexManagerAbstract {
     }
   }
 
+  @Override
+  public boolean isDocumentRequired(QueryContext queryContext) {
+    // THE DISTANCE IS COMPUTED ON THE STORED SHAPE
+    return ((SpatialQueryContext) queryContext).spatialArgs != null;
+  }
+
   @Override
   public Document buildDocument(Object key, OIdentifiable value) {
     return null;
   }
 
+  @Override
+  public Document createDocument(Object key, OIdentifiable value) {
+    return newGeoDocument(value, factory.makeShape((OCompositeKey) key, ctx));
+  }
+
   @Override
   public Query buildQuery(Object query) {
     return null;
@@ -192,22 +224,25 @@ public class OLuceneSpatialIndexManager extends OLuceneIndexManagerAbstract {
     if (shape == null)
       return null;
     SpatialArgs args = new SpatialArgs(SpatialOperation.IsWithin, shape);
-    IndexSearcher searcher = getSearcher();
-
     Filter filter = strategy.makeFilter(args);
 
-    return new LuceneResultSet(this, new SpatialQueryContext(context, searcher, new MatchAllDocsQuery(), filter));
+    OLuceneSearcherLeases.Lease lease = leaseSearcher();
+    return new LuceneResultSet(this, new SpatialQueryContext(context, lease.getSearcher(), new MatchAllDocsQuery(), filter),
+        lease);
   }
 
   @Override
   public void put(Object key, Object value) {
-
-    OCompositeKey compositeKey = (OCompositeKey) key;
-    if (key instanceof OCompositeKey) {
-    }
-    Set<OIdentifiable> container = (Set<OIdentifiable>) value;
-    for (OIdentifiable oIdentifiable : container) {
-      addDocument(newGeoDocument(oIdentifiable, factory.makeShape(compositeKey, ctx)));
+    beginWrite();
+    try {
+      Set<OIdentifiable> container = (Set<OIdentifiable>) value;
+      for (OIdentifiable oIdentifiable : container) {
+        addDocument(createDocument(key, oIdentifiable));
+      }
+
+      requestCommit();
+    } finally {
+      endWrite();
     }
   }
 
@@ -224,7 +259,7 @@ public class OLuceneSpatialIndexManager extends OLuceneIndexManagerAbstract {
   @Override
   public OIndexCursor iterateEntriesBetween(Object rangeFrom, boolean fromInclusive, Object rangeTo, boolean toInclusive,
       boolean ascSortOrder, ValuesTransformer transformer) {
-    return null;
+    return new LuceneIndexCursor((Set<OIdentifiable>) get(rangeFrom), rangeFrom);
   }
 
   @Override
@@ -239,12 +274,26 @@ public class OLuceneSpatialIndexManager extends OLuceneIndexManagerAbstract {
 
   @Override
   public OIndexCursor cursor(ValuesTransformer valuesTransformer) {
-    return null;
+    OLuceneSearcherLeases.Lease lease = null;
+    try {
+      lease = leaseSearcher();
+      SpatialQueryContext queryContext = new SpatialQueryContext(null, lease.getSearcher(), new MatchAllDocsQuery());
+      return new LuceneIndexCursor(new LuceneResultSet(this, queryContext, lease), null);
+    } catch (IOException e) {
+      if (lease != null)
+        lease.release();
+      throw new OIndexException("Error reading from Lucene index", e);
+    }
   }
 
   @Override
   public OIndexKeyCursor keyCursor() {
-    return null;
+    return new OIndexKeyCursor() {
+      @Override
+      public Object next(int prefetchSize) {
+        return null;
+      }
+    };
   }
 
   @Override
@@ -260,8 +309,9 @@ public class OLuceneSpatialIndexManager extends OLuceneIndexManagerAbstract {
 
     Document doc = new Document();
 
-    doc.add(OLuceneIndexType.createField(RID, oIdentifiable.getIdentity().toString(), Field.Store.YES,
+    doc.add(OLuceneIndexType.createField(RID, oIdentifiable.getIdentity().toString(), Field.Store.NO,
         Field.Index.NOT_ANALYZED_NO_NORMS));
+    OLuceneIndexType.addRidDocValues(doc, oIdentifiable);
     for (IndexableField f : strategy.createIndexableFields(shape)) {
       doc.add(f);
     }
@@ -16,8 +16,11 @@
 
 package com.orientechnologies.lucene.operator;
 
+import com.orientechnologies.lucene.collections.LuceneIndexCursor;
+import com.orientechnologies.lucene.collections.LuceneResultSet;
 import com.orientechnologies.lucene.collections.OFullTextCompositeKey;
 import com.orientechnologies.lucene.index.OLuceneFullTextIndex;
+import com.orientechnologies.lucene.query.QueryContext;
 import com.orientechnologies.orient.core.command.OCommandContext;
 import com.orientechnologies.orient.core.db.ODatabase;
 import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
@@ -53,11 +56,20 @@ public class OLuceneTextOperator extends OQueryTargetOperator {
     super(iKeyword, iPrecedence, iLogical);
   }
 
+  /**
+   * Returns a cursor streaming the hits from the searcher: the SQL executor hands it the SKIP plus LIMIT of the query as prefetch
+   * size. A query given as a map can also set them explicitly with its "limit" and "skip" entries.
+   */
   @Override
   public OIndexCursor executeIndexQuery(OCommandContext iContext, OIndex<?> index, List<Object> keyParams, boolean ascSortOrder) {
+    if (!keyParams.isEmpty() && keyParams.get(0) instanceof Map)
+      publishLimits(iContext, (Map<?, ?>) keyParams.get(0));
+
     OIndexCursor cursor;
     Object indexResult = index.get(new OFullTextCompositeKey(keyParams).setContext(iContext));
-    if (indexResult == null || indexResult instanceof OIdentifiable)
+    if (indexResult instanceof LuceneResultSet)
+      cursor = new LuceneIndexCursor((LuceneResultSet) indexResult, new OFullTextCompositeKey(keyParams));
+    else if (indexResult == null || indexResult instanceof OIdentifiable)
       cursor = new OIndexCursorSingleValue((OIdentifiable) indexResult, new OFullTextCompositeKey(keyParams));
     else
       cursor = new OIndexCursorCollectionValue(((Collection<OIdentifiable>) indexResult).iterator(), new OFullTextCompositeKey(
@@ -66,6 +78,15 @@ public class OLuceneTextOperator extends OQueryTargetOperator {
     return cursor;
   }
 
+  private static void publishLimits(OCommandContext iContext, Map<?, ?> params) {
+    final Object limit = params.get("limit");
+    if (limit instanceof Number)
+      iContext.setVariable(QueryContext.LIMIT, ((Number) limit).intValue());
+    final Object skip = params.get("skip");
+    if (skip instanceof Number)
+      iContext.setVariable(QueryContext.SKIP, ((Number) skip).intValue());
+  }
+
   @Override
   public OIndexReuseType getIndexReuseType(Object iLeft, Object iRight) {
     return OIndexReuseType.INDEX_OPERATOR;
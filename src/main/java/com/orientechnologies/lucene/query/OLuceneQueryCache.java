@@ -0,0 +1,116 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.query;
+
+import org.apache.lucene.search.Query;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of the parsed queries of an index, keyed by the query text and the fields it is parsed against. The cached
+ * queries are shared between threads, so they must not be modified. The cache is replaced when the index is reopened, and with
+ * it the analyzer configuration.
+ */
+public class OLuceneQueryCache {
+
+  public static final String      QUERY_CACHE_SIZE         = "queryCacheSize";
+  public static final int         DEFAULT_QUERY_CACHE_SIZE = 1000;
+
+  private final int               maxSize;
+  private final Map<String, Query> queries;
+  private final AtomicLong        hits                     = new AtomicLong();
+  private final AtomicLong        misses                   = new AtomicLong();
+
+  public OLuceneQueryCache(final int maxSize) {
+    this.maxSize = maxSize;
+    this.queries = new LinkedHashMap<String, Query>(Math.max(16, Math.min(maxSize, 1024)), 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+        return size() > OLuceneQueryCache.this.maxSize;
+      }
+    };
+  }
+
+  public boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  /**
+   * Returns the parsed query, null if not cached.
+   */
+  public Query get(String text, List<String> fields) {
+    if (!isEnabled())
+      return null;
+
+    final Query query;
+    synchronized (queries) {
+      query = queries.get(key(text, fields));
+    }
+    if (query != null)
+      hits.incrementAndGet();
+    else
+      misses.incrementAndGet();
+    return query;
+  }
+
+  public void put(String text, List<String> fields, Query query) {
+    if (!isEnabled())
+      return;
+
+    synchronized (queries) {
+      queries.put(key(text, fields), query);
+    }
+  }
+
+  public void clear() {
+    synchronized (queries) {
+      queries.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (queries) {
+      return queries.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the ratio of lookups answered by the cache, between 0 and 1.
+   */
+  public double getHitRate() {
+    final long hits = this.hits.get();
+    final long total = hits + misses.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  private static String key(String text, List<String> fields) {
+    return fields + "\u0000" + text;
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.query;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiTermQueryWrapperFilter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the top hits of the searches of an index, keyed by query, filter, sort and number of hits. Every entry is tagged with
+ * the version of the reader it was collected from and only served to searchers on the same version; the whole cache is dropped
+ * when the searcher manager publishes a new searcher. Entries are evicted in LRU order past the maximum number of entries or
+ * the maximum estimated memory. Searches whose filter or sort are only equal to themselves, like the spatial ones, are not cached.
+ */
+public class OLuceneResultCache implements ReferenceManager.RefreshListener {
+
+  public static final String         RESULT_CACHE_SIZE           = "resultCacheSize";
+  public static final String         RESULT_CACHE_MAX_MB         = "resultCacheMaxMB";
+  public static final int            DEFAULT_RESULT_CACHE_SIZE   = 256;
+  public static final int            DEFAULT_RESULT_CACHE_MAX_MB = 16;
+
+  private static final int           ENTRY_BYTES                 = 128;
+  private static final int           HIT_BYTES                   = 32;
+  private static final int           SORT_VALUE_BYTES            = 32;
+
+  private final int                  maxSize;
+  private final long                 maxBytes;
+  private final Map<Key, Entry>      results                     = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+  private long                       bytes;
+  private final AtomicLong           hits                        = new AtomicLong();
+  private final AtomicLong           misses                      = new AtomicLong();
+  private final AtomicLong           invalidations               = new AtomicLong();
+
+  public OLuceneResultCache(final int maxSize, final int maxMB) {
+    this.maxSize = maxSize;
+    this.maxBytes = maxMB * 1024L * 1024L;
+  }
+
+  public boolean isEnabled() {
+    return maxSize > 0 && maxBytes > 0;
+  }
+
+  /**
+   * Returns the top hits collected by the same search on the version of the reader of the searcher, null if not cached.
+   */
+  public TopDocs get(IndexSearcher searcher, Query query, Filter filter, Sort sort, int size) {
+    final long version = getVersion(searcher);
+    if (!isEnabled() || version < 0 || !isCacheable(filter, sort))
+      return null;
+
+    final Key key = new Key(query, filter, sort, size);
+    synchronized (results) {
+      final Entry entry = results.get(key);
+      if (entry != null) {
+        if (entry.version == version) {
+          hits.incrementAndGet();
+          return entry.topDocs;
+        }
+        if (entry.version < version)
+          remove(key);
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  public void put(IndexSearcher searcher, Query query, Filter filter, Sort sort, int size, TopDocs topDocs) {
+    final long version = getVersion(searcher);
+    if (!isEnabled() || version < 0 || topDocs == null || !isCacheable(filter, sort))
+      return;
+
+    final Entry entry = new Entry(version, topDocs);
+    if (entry.bytes > maxBytes)
+      return;
+
+    final Key key = new Key(query, filter, sort, size);
+    synchronized (results) {
+      final Entry previous = results.get(key);
+      // A SEARCHER ACQUIRED BEFORE THE LAST REFRESH MUST NOT REPLACE THE HITS OF A NEWER ONE
+      if (previous != null && previous.version > version)
+        return;
+      remove(key);
+      results.put(key, entry);
+      bytes += entry.bytes;
+
+      for (Iterator<Entry> it = results.values().iterator(); it.hasNext() && (results.size() > maxSize || bytes > maxBytes);) {
+        bytes -= it.next().bytes;
+        it.remove();
+      }
+    }
+  }
+
+  public void clear() {
+    synchronized (results) {
+      results.clear();
+      bytes = 0;
+    }
+  }
+
+  @Override
+  public void beforeRefresh() {
+  }
+
+  @Override
+  public void afterRefresh(boolean didRefresh) {
+    if (didRefresh) {
+      invalidations.incrementAndGet();
+      clear();
+    }
+  }
+
+  public int size() {
+    synchronized (results) {
+      return results.size();
+    }
+  }
+
+  /**
+   * Returns the estimated memory held by the cached hits, in bytes.
+   */
+  public long getBytes() {
+    synchronized (results) {
+      return bytes;
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getInvalidations() {
+    return invalidations.get();
+  }
+
+  public double getHitRate() {
+    final long hits = this.hits.get();
+    final long total = hits + misses.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  private void remove(Key key) {
+    final Entry removed = results.remove(key);
+    if (removed != null)
+      bytes -= removed.bytes;
+  }
+
+  /**
+   * Tells whether the filter and the sort compare by value, so that the same search run again finds its entry.
+   */
+  static boolean isCacheable(Filter filter, Sort sort) {
+    if (filter != null && !(filter instanceof QueryWrapperFilter) && !(filter instanceof MultiTermQueryWrapperFilter))
+      return false;
+    if (sort != null) {
+      for (SortField field : sort.getSort()) {
+        // CUSTOM AND REWRITEABLE FIELDS COMPARE THEIR COMPARATOR SOURCE BY IDENTITY
+        if (field.getType() == SortField.Type.CUSTOM || field.getType() == SortField.Type.REWRITEABLE)
+          return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the version of the reader of the searcher, -1 if the reader has no version and its hits cannot be cached.
+   */
+  private static long getVersion(IndexSearcher searcher) {
+    final IndexReader reader = searcher.getIndexReader();
+    return reader instanceof DirectoryReader ? ((DirectoryReader) reader).getVersion() : -1;
+  }
+
+  private static final class Key {
+    private final Query  query;
+    private final Filter filter;
+    private final Sort   sort;
+    private final int    size;
+    private final int    hash;
+
+    private Key(Query query, Filter filter, Sort sort, int size) {
+      this.query = query;
+      this.filter = filter;
+      this.sort = sort;
+      this.size = size;
+
+      int hash = query.hashCode();
+      hash = 31 * hash + (filter != null ? filter.hashCode() : 0);
+      hash = 31 * hash + (sort != null ? sort.hashCode() : 0);
+      this.hash = 31 * hash + size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof Key))
+        return false;
+
+      final Key other = (Key) o;
+      return size == other.size && query.equals(other.query) && (filter != null ? filter.equals(other.filter) : other.filter == null)
+          && (sort != null ? sort.equals(other.sort) : other.sort == null);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class Entry {
+    private final long    version;
+    private final TopDocs topDocs;
+    private final long    bytes;
+
+    private Entry(long version, TopDocs topDocs) {
+      this.version = version;
+      this.topDocs = topDocs;
+
+      long bytes = ENTRY_BYTES;
+      for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+        bytes += HIT_BYTES;
+        if (scoreDoc instanceof FieldDoc && ((FieldDoc) scoreDoc).fields != null)
+          bytes += ((FieldDoc) scoreDoc).fields.length * SORT_VALUE_BYTES;
+      }
+      this.bytes = bytes;
+    }
+  }
+}
@@ -31,6 +31,11 @@ import org.apache.lucene.search.Sort;
  */
 public class QueryContext {
 
+  // PUBLISHED BY THE LUCENE OPERATOR FOR THE "limit" AND "skip" ENTRIES OF A MAP QUERY
+  public static final String   LIMIT     = "$limit";
+  public static final String   SKIP      = "$skip";
+  public static final String   SCORING   = "$luceneScoring";
+
   public final OCommandContext context;
   public final IndexSearcher   searcher;
   public final Query           query;
@@ -43,6 +48,9 @@ public class QueryContext {
   private FacetsConfig         facetConfig;
   private String               facetField;
   private String               drillDownQuery;
+  private int                  limit     = -1;
+  private int                  skip      = 0;
+  private boolean              scoring   = true;
 
   public QueryContext(OCommandContext context, IndexSearcher searcher, Query query) {
     this(context, searcher, query, null, null);
@@ -59,6 +67,21 @@ public class QueryContext {
     this.filter = filter;
     this.sort = sort;
     initCFG();
+    initLimits();
+  }
+
+  private void initLimits() {
+    if (context == null)
+      return;
+
+    final Object limitValue = context.getVariable(LIMIT);
+    if (limitValue instanceof Number)
+      limit = ((Number) limitValue).intValue();
+    final Object skipValue = context.getVariable(SKIP);
+    if (skipValue instanceof Number)
+      skip = Math.max(0, ((Number) skipValue).intValue());
+    if (Boolean.FALSE.equals(context.getVariable(SCORING)))
+      scoring = false;
   }
 
   private void initCFG() {
@@ -112,6 +135,39 @@ public class QueryContext {
     return drillDownQuery;
   }
 
+  /**
+   * Returns the LIMIT of the query, -1 if unknown or unbounded.
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  public QueryContext setLimit(int limit) {
+    this.limit = limit;
+    return this;
+  }
+
+  public int getSkip() {
+    return skip;
+  }
+
+  public QueryContext setSkip(int skip) {
+    this.skip = Math.max(0, skip);
+    return this;
+  }
+
+  /**
+   * Returns false if the query does not need the scores of the hits, neither to project nor to order them.
+   */
+  public boolean isScoring() {
+    return scoring;
+  }
+
+  public QueryContext setScoring(boolean scoring) {
+    this.scoring = scoring;
+    return this;
+  }
+
   public enum QueryContextCFG {
     NO_FILTER_NO_SORT, FILTER_SORT, FILTER, SORT
   }
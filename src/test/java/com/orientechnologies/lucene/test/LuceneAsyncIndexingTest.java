@@ -0,0 +1,209 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Test(groups = "embedded")
+public class LuceneAsyncIndexingTest extends BaseLuceneTest {
+
+  private final static int THREADS = 4;
+  private final static int CYCLE   = 50;
+
+  public LuceneAsyncIndexingTest() {
+    super();
+  }
+
+  public LuceneAsyncIndexingTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "asyncIndexing";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE METADATA { 'asyncIndexing' : true }"))
+        .execute();
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testReadYourWrites() throws Exception {
+
+    databaseDocumentTx.getMetadata().reload();
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+
+    for (int i = 0; i < 100; i++) {
+      ODocument doc = new ODocument("City");
+      doc.field("name", "Rome");
+      databaseDocumentTx.save(doc);
+    }
+
+    OIndex idx = schema.getClass("City").getClassIndex("City.name");
+    Collection<?> coll = (Collection<?>) idx.get("Rome");
+    Assert.assertEquals(coll.size(), 100);
+    Assert.assertEquals(idx.getSize(), 100);
+
+    ODocument doc = databaseDocumentTx.load((ORID) coll.iterator().next());
+    doc.field("name", "London");
+    databaseDocumentTx.save(doc);
+
+    coll = (Collection<?>) idx.get("Rome");
+    Assert.assertEquals(coll.size(), 99);
+    coll = (Collection<?>) idx.get("London");
+    Assert.assertEquals(coll.size(), 1);
+
+    databaseDocumentTx.delete(doc);
+
+    coll = (Collection<?>) idx.get("London");
+    Assert.assertEquals(coll.size(), 0);
+    Assert.assertEquals(idx.getSize(), 99);
+  }
+
+  @Test
+  public void testTransactionsDoNotOvertakeQueuedWrites() throws Exception {
+
+    final String url = databaseDocumentTx.getURL();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < THREADS; ++i) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          ODatabaseDocumentTx db = new ODatabaseDocumentTx(url);
+          db.open("admin", "admin");
+          try {
+            for (int j = 0; j < CYCLE; j++) {
+              // QUEUED TO THE INDEXER THREADS
+              ODocument doc = new ODocument("City");
+              doc.field("name", "Paris");
+              db.save(doc);
+
+              // COMMITTED SYNCHRONOUSLY ON THE SAME RECORD
+              db.begin();
+              doc = db.load(doc.getIdentity());
+              doc.field("name", "Berlin");
+              db.save(doc);
+              db.commit();
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            db.close();
+          }
+        }
+      }, "AsyncTxTest" + i);
+    }
+
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+
+    Assert.assertNull(failure.get());
+
+    databaseDocumentTx.getMetadata().reload();
+    OIndex idx = databaseDocumentTx.getMetadata().getSchema().getClass("City").getClassIndex("City.name");
+    Assert.assertEquals(((Collection<?>) idx.get("Paris")).size(), 0);
+    Assert.assertEquals(((Collection<?>) idx.get("Berlin")).size(), THREADS * CYCLE);
+  }
+
+  @Test
+  public void testQueuedWritesAndTransactionsOfOtherDatabases() throws Exception {
+
+    final String url = databaseDocumentTx.getURL();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < THREADS; ++i) {
+      final boolean transactional = i % 2 == 0;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          ODatabaseDocumentTx db = new ODatabaseDocumentTx(url);
+          db.open("admin", "admin");
+          try {
+            for (int j = 0; j < CYCLE; j++) {
+              if (transactional) {
+                // COMMITTED IN ONE BATCH WHILE THE INDEXER THREADS APPLY THE OTHER WRITES
+                db.begin();
+                for (int k = 0; k < 5; k++) {
+                  ODocument doc = new ODocument("City");
+                  doc.field("name", "Lisbon");
+                  db.save(doc);
+                }
+                db.commit();
+              } else {
+                ODocument doc = new ODocument("City");
+                doc.field("name", "Madrid");
+                db.save(doc);
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            // THE INDEXER THREADS WORK ON THEIR OWN COPY: THE WRITES STILL QUEUED OUTLIVE THIS INSTANCE
+            db.close();
+          }
+        }
+      }, "AsyncOtherDbTest" + i);
+    }
+
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+
+    Assert.assertNull(failure.get());
+
+    databaseDocumentTx.getMetadata().reload();
+    OIndex idx = databaseDocumentTx.getMetadata().getSchema().getClass("City").getClassIndex("City.name");
+    Assert.assertEquals(((Collection<?>) idx.get("Lisbon")).size(), THREADS / 2 * CYCLE * 5);
+    Assert.assertEquals(((Collection<?>) idx.get("Madrid")).size(), THREADS / 2 * CYCLE);
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that an index enters the bulk-load mode with the massive insert intent of a database writing to it, and that it leaves
+ * it with the previous settings when the intent is replaced or the database closed.
+ */
+@Test(groups = "embedded")
+public class LuceneBulkLoadTest extends BaseLuceneTest {
+
+  private static final long BULK_RAM_BUFFER_MB = 64;
+  private static final int  DOCS               = 500;
+
+  public LuceneBulkLoadTest() {
+    super();
+  }
+
+  public LuceneBulkLoadTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "bulkLoad";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE METADATA { 'bulkRamBufferMB' : "
+            + BULK_RAM_BUFFER_MB + " }")).execute();
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testBulkModeFollowsTheIntent() {
+    final long ramBufferMB = getMetric("writer.ramBufferMB");
+    Assert.assertTrue(ramBufferMB != BULK_RAM_BUFFER_MB);
+    Assert.assertEquals(getMetric("bulk.active"), 0);
+
+    databaseDocumentTx.declareIntent(new OIntentMassiveInsert());
+    for (int i = 0; i < DOCS; i++)
+      saveCity("Rome" + i);
+
+    Assert.assertEquals(getMetric("bulk.active"), 1);
+    Assert.assertEquals(getMetric("writer.ramBufferMB"), BULK_RAM_BUFFER_MB);
+
+    // THE INTENT IS REPLACED ON THIS THREAD: THE NEXT WRITE LEAVES THE MODE
+    databaseDocumentTx.declareIntent(null);
+    saveCity("Rome" + DOCS);
+
+    Assert.assertEquals(getMetric("bulk.active"), 0);
+    Assert.assertEquals(getMetric("writer.ramBufferMB"), ramBufferMB);
+    Assert.assertEquals(query("select from City where name lucene 'Rome*'").size(), DOCS + 1);
+  }
+
+  @Test(dependsOnMethods = "testBulkModeFollowsTheIntent")
+  public void testClosedDatabaseEndsBulkMode() throws Exception {
+    final long ramBufferMB = getMetric("writer.ramBufferMB");
+    final String url = databaseDocumentTx.getURL();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    Thread loader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        ODatabaseDocumentTx db = new ODatabaseDocumentTx(url);
+        db.open("admin", "admin");
+        try {
+          db.declareIntent(new OIntentMassiveInsert());
+          for (int i = 0; i < DOCS; i++) {
+            ODocument doc = new ODocument("City");
+            doc.field("name", "Milan" + i);
+            db.save(doc);
+          }
+        } catch (Throwable e) {
+          failure.set(e);
+        } finally {
+          // CLOSED WITH THE INTENT STILL DECLARED
+          db.close();
+        }
+      }
+    }, "BulkLoadTest");
+    loader.start();
+    loader.join();
+
+    Assert.assertNull(failure.get());
+    Assert.assertEquals(getMetric("bulk.active"), 1);
+
+    // THE CLOSED DATABASE IS DROPPED BY THE SAMPLER
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (getMetric("bulk.active") != 0 && System.currentTimeMillis() < deadline)
+      Thread.sleep(100);
+
+    Assert.assertEquals(getMetric("bulk.active"), 0);
+    Assert.assertEquals(getMetric("writer.ramBufferMB"), ramBufferMB);
+    Assert.assertEquals(query("select from City where name lucene 'Milan*'").size(), DOCS);
+  }
+
+  private void saveCity(String name) {
+    ODocument doc = new ODocument("City");
+    doc.field("name", name);
+    databaseDocumentTx.save(doc);
+  }
+
+  private List<ODocument> query(String sql) {
+    return databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(sql));
+  }
+
+  private long getMetric(String metric) {
+    OIndex<?> idx = databaseDocumentTx.getMetadata().getIndexManager().getIndex("City.name");
+    return ((Number) ((OLuceneIndex) idx.getInternal()).getMetrics().get(metric)).longValue();
+  }
+}
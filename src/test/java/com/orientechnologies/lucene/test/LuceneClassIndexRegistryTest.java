@@ -0,0 +1,162 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Updates the records of a class with a Lucene index from concurrent connections in transactions: the index registry is shared
+ * by the connections, the writes of each one must join its own transaction.
+ */
+@Test(groups = "embedded")
+public class LuceneClassIndexRegistryTest extends BaseLuceneTest {
+
+  private final static int CONNECTIONS = 2;
+  private final static int CYCLE       = 50;
+
+  public LuceneClassIndexRegistryTest() {
+    super();
+  }
+
+  public LuceneClassIndexRegistryTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "classIndexRegistry";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE")).execute();
+
+    schema.createClass("Capital", oClass);
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testConcurrentTransactionalUpdates() throws Exception {
+
+    final List<List<ORID>> rids = new ArrayList<List<ORID>>();
+    for (int i = 0; i < CONNECTIONS; i++) {
+      final List<ORID> connectionRids = new ArrayList<ORID>();
+      for (int j = 0; j < CYCLE; j++) {
+        ODocument doc = new ODocument("City");
+        doc.field("name", "Rome");
+        databaseDocumentTx.save(doc);
+        connectionRids.add(doc.getIdentity());
+      }
+      rids.add(connectionRids);
+    }
+
+    final String url = databaseDocumentTx.getURL();
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    Thread[] threads = new Thread[CONNECTIONS];
+    for (int i = 0; i < CONNECTIONS; i++) {
+      final List<ORID> connectionRids = rids.get(i);
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          ODatabaseDocumentTx db = new ODatabaseDocumentTx(url);
+          db.open("admin", "admin");
+          try {
+            start.await();
+            for (ORID rid : connectionRids) {
+              db.begin();
+              ODocument doc = db.load(rid);
+              doc.field("name", "London");
+              db.save(doc);
+              db.commit();
+
+              // ROLLED BACK: MUST NOT REACH THE INDEX THROUGH THE OTHER CONNECTION
+              db.begin();
+              doc = db.load(rid);
+              doc.field("name", "Paris");
+              db.save(doc);
+              db.rollback();
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            db.close();
+          }
+        }
+      }, "RegistryTxTest" + i);
+      threads[i].start();
+    }
+
+    start.countDown();
+    for (Thread thread : threads)
+      thread.join();
+
+    Assert.assertNull(failure.get());
+
+    databaseDocumentTx.getMetadata().reload();
+    OIndex idx = databaseDocumentTx.getMetadata().getSchema().getClass("City").getClassIndex("City.name");
+    Assert.assertEquals(((Collection<?>) idx.get("Rome")).size(), 0);
+    Assert.assertEquals(((Collection<?>) idx.get("Paris")).size(), 0);
+    Assert.assertEquals(((Collection<?>) idx.get("London")).size(), CONNECTIONS * CYCLE);
+  }
+
+  @Test
+  public void testUpdatesOfSubclassRecords() {
+
+    ODocument doc = new ODocument("Capital");
+    doc.field("name", "Madrid");
+    databaseDocumentTx.save(doc);
+
+    // THE INDEX IS DEFINED ON THE SUPERCLASS
+    doc.field("name", "Lisbon");
+    databaseDocumentTx.save(doc);
+
+    OIndex idx = databaseDocumentTx.getMetadata().getIndexManager().getIndex("City.name");
+    Assert.assertEquals(((Collection<?>) idx.get("Madrid")).size(), 0);
+    Assert.assertEquals(((Collection<?>) idx.get("Lisbon")).size(), 1);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes to the same index from concurrent connections, with and without the exclusive index lock: no write is lost and every
+ * writer reads its own writes.
+ */
+@Test(groups = "embedded")
+public class LuceneConcurrentWritesTest extends BaseLuceneTest {
+
+  private final static int THREADS = 8;
+  private final static int CYCLE   = 100;
+
+  public LuceneConcurrentWritesTest() {
+    super();
+  }
+
+  public LuceneConcurrentWritesTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "concurrentWrites";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE")).execute();
+
+    OClass town = schema.createClass("Town");
+
+    town.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index Town.name on Town (name) FULLTEXT ENGINE LUCENE METADATA { 'concurrentWrites' : false }"))
+        .execute();
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testConcurrentWriters() throws Exception {
+    assertConcurrentWriters("City");
+  }
+
+  @Test
+  public void testSerializedWriters() throws Exception {
+    assertConcurrentWriters("Town");
+  }
+
+  private void assertConcurrentWriters(final String className) throws Exception {
+
+    final String url = databaseDocumentTx.getURL();
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      final String writer = "writer" + i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          ODatabaseDocumentTx db = new ODatabaseDocumentTx(url);
+          db.open("admin", "admin");
+          try {
+            start.await();
+            for (int j = 0; j < CYCLE; j++) {
+              ODocument doc = new ODocument(className);
+              doc.field("name", "Rome " + writer);
+              db.save(doc);
+
+              // EVERY WRITER READS ITS OWN WRITES, WHATEVER THE OTHERS ARE DOING
+              if (j % 10 == 9)
+                Assert.assertEquals(db.query(new OSQLSynchQuery<ODocument>("select from " + className + " where name LUCENE '"
+                    + writer + "'")).size(), j + 1);
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            db.close();
+          }
+        }
+      }, "ConcurrentWritesTest" + i);
+      threads[i].start();
+    }
+
+    start.countDown();
+    for (Thread thread : threads)
+      thread.join();
+
+    Assert.assertNull(failure.get());
+
+    Assert.assertEquals(databaseDocumentTx.query(
+        new OSQLSynchQuery<ODocument>("select from " + className + " where name LUCENE 'Rome'")).size(), THREADS * CYCLE);
+    for (int i = 0; i < THREADS; i++)
+      Assert.assertEquals(databaseDocumentTx.query(
+          new OSQLSynchQuery<ODocument>("select from " + className + " where name LUCENE 'writer" + i + "'")).size(), CYCLE);
+  }
+}
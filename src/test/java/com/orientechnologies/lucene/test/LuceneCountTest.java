@@ -0,0 +1,119 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.Collection;
+import java.util.List;
+
+@Test(groups = "embedded")
+public class LuceneCountTest extends BaseLuceneTest {
+
+  public LuceneCountTest() {
+    super();
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "luceneCount";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+    oClass.createProperty("name", OType.STRING);
+
+    databaseDocumentTx.command(new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE")).execute();
+
+    for (int i = 0; i < 300; i++) {
+      ODocument doc = new ODocument("City");
+      doc.field("name", i % 3 == 0 ? "Rome" : "London");
+      databaseDocumentTx.save(doc);
+    }
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testCount() throws Exception {
+
+    OIndex idx = databaseDocumentTx.getMetadata().getSchema().getClass("City").getClassIndex("City.name");
+
+    final long resolved = resolvedHits(idx);
+
+    Assert.assertEquals(idx.count("Rome"), 100);
+    Assert.assertEquals(idx.count("London"), 200);
+    Assert.assertEquals(idx.count("Paris"), 0);
+
+    // THE COUNTS ONLY ASK THE SEARCHER FOR THE TOTAL HITS
+    Assert.assertEquals(resolvedHits(idx), resolved);
+
+    // THE COUNT DOES NOT CHANGE THE RESULTS OF A LATER ITERATION
+    Collection<?> rome = (Collection<?>) idx.get("Rome");
+    Assert.assertEquals(rome.size(), 100);
+    int iterated = 0;
+    for (Object o : rome) {
+      Assert.assertNotNull(o);
+      iterated++;
+    }
+    Assert.assertEquals(iterated, 100);
+
+    List<ODocument> docs = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(
+        "select count(*) as count from City where name LUCENE 'London'"));
+    Assert.assertEquals(((Number) docs.get(0).field("count")).longValue(), 200);
+  }
+
+  @Test
+  public void testCountFunction() throws Exception {
+
+    OIndex idx = databaseDocumentTx.getMetadata().getSchema().getClass("City").getClassIndex("City.name");
+    final long resolved = resolvedHits(idx);
+
+    List<ODocument> docs = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(
+        "select lucene_count('City.name', 'London') as count"));
+    Assert.assertEquals(((Number) docs.get(0).field("count")).longValue(), 200);
+
+    docs = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select lucene_count('City.name', 'Paris') as count"));
+    Assert.assertEquals(((Number) docs.get(0).field("count")).longValue(), 0);
+
+    Assert.assertEquals(resolvedHits(idx), resolved);
+  }
+
+  private long resolvedHits(OIndex idx) {
+    return ((Number) ((OLuceneIndex) idx.getInternal()).getMetrics().get("hits.resolved")).longValue();
+  }
+}
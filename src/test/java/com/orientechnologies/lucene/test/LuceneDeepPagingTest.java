@@ -0,0 +1,162 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.lucene.collections.OFullTextCompositeKey;
+import com.orientechnologies.lucene.collections.OLuceneRidResolver;
+import com.orientechnologies.orient.core.command.OBasicCommandContext;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Iterates well past the first pages of a result set with the geometric page growth and the prefetch of the next page: every
+ * hit must come back exactly once, in the order of a single search of all of them.
+ */
+@Test(groups = "embedded")
+public class LuceneDeepPagingTest extends BaseLuceneTest {
+
+  private static final int MAX_PAGE_SIZE = 300;
+  private static final int DOCS          = 3000;
+
+  public LuceneDeepPagingTest() {
+    super();
+  }
+
+  public LuceneDeepPagingTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "deepPaging";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+    oClass.createProperty("name", OType.STRING);
+
+    // PAGES OF 50, 200, THEN 300 UP TO THE END
+    databaseDocumentTx.command(
+        new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE METADATA { 'resultPrefetch' : true, "
+            + "'resultMaxPageSize' : " + MAX_PAGE_SIZE + " }")).execute();
+
+    for (int i = 0; i < DOCS; i++) {
+      ODocument doc = new ODocument("City");
+      // DIFFERENT LENGTHS, SO DIFFERENT SCORES
+      doc.field("name", i % 3 == 0 ? "Rome" : i % 3 == 1 ? "Rome Capital" : "Rome Eternal City");
+      databaseDocumentTx.save(doc);
+    }
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testEveryHitOnceInOrder() throws Exception {
+    final List<ORID> expected = searchAll();
+    Assert.assertEquals(expected.size(), DOCS);
+
+    final int openLeases = getOpenLeases();
+
+    final List<ORID> returned = new ArrayList<ORID>();
+    for (OIdentifiable hit : get())
+      returned.add(hit.getIdentity());
+
+    Assert.assertEquals(new HashSet<ORID>(returned).size(), returned.size(), "Hits returned twice");
+    Assert.assertEquals(returned, expected);
+
+    // EXHAUSTED: THE SEARCHER IS GIVEN BACK
+    Assert.assertEquals(getOpenLeases(), openLeases);
+  }
+
+  @Test(dependsOnMethods = "testEveryHitOnceInOrder")
+  public void testConcurrentDeepIterations() throws Exception {
+    final List<ORID> expected = searchAll();
+
+    // THE PREFETCHES OF THE RESULT SETS SHARE THE SAME POOL
+    final Iterable<OIdentifiable> first = get();
+    final Iterable<OIdentifiable> second = get();
+    final List<ORID> firstReturned = new ArrayList<ORID>();
+    final List<ORID> secondReturned = new ArrayList<ORID>();
+    final Iterator<OIdentifiable> firstIt = first.iterator();
+    final Iterator<OIdentifiable> secondIt = second.iterator();
+    while (firstIt.hasNext() || secondIt.hasNext()) {
+      if (firstIt.hasNext())
+        firstReturned.add(firstIt.next().getIdentity());
+      if (secondIt.hasNext())
+        secondReturned.add(secondIt.next().getIdentity());
+    }
+
+    Assert.assertEquals(firstReturned, expected);
+    Assert.assertEquals(secondReturned, expected);
+  }
+
+  /**
+   * Returns the RIDs of all the hits by a single search, in score order.
+   */
+  private List<ORID> searchAll() throws Exception {
+    final IndexSearcher searcher = ((OLuceneIndex) getIndex().getInternal()).searcher();
+    final ScoreDoc[] hits = searcher.search(new TermQuery(new Term("name", "rome")), DOCS * 2).scoreDocs;
+
+    final List<ORID> rids = new ArrayList<ORID>(hits.length);
+    for (OIdentifiable rid : new OLuceneRidResolver(searcher).resolve(hits))
+      rids.add(rid.getIdentity());
+    return rids;
+  }
+
+  private OIndex<?> getIndex() {
+    return databaseDocumentTx.getMetadata().getIndexManager().getIndex("City.name");
+  }
+
+  private Collection<OIdentifiable> get() {
+    return (Collection<OIdentifiable>) getIndex().get(
+        new OFullTextCompositeKey(Arrays.asList("Rome")).setContext(new OBasicCommandContext()));
+  }
+
+  private int getOpenLeases() {
+    return ((Number) ((OLuceneIndex) getIndex().getInternal()).getMetrics().get("leases.open")).intValue();
+  }
+}
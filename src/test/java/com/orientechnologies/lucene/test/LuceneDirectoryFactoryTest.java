@@ -0,0 +1,137 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.store.RateLimitedDirectoryWrapper;
+import org.apache.lucene.util.Constants;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+/**
+ * Checks that the "directory" field of the metadata selects the directory the index is opened with, and that unknown names
+ * fall back to NIO.
+ */
+@Test(groups = "embedded")
+public class LuceneDirectoryFactoryTest extends BaseLuceneTest {
+
+  public LuceneDirectoryFactoryTest() {
+    super();
+  }
+
+  public LuceneDirectoryFactoryTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "directoryFactory";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    createIndexedClass(schema, "NioCity", "{ 'directory' : 'nio' }");
+    createIndexedClass(schema, "MMapCity", "{ 'directory' : 'mmap' }");
+    createIndexedClass(schema, "NrtCity", "{ 'directory' : 'nrtcaching', 'nrtCacheMaxMergeSizeMB' : 2, 'nrtCacheMaxCachedMB' : 16 }");
+    createIndexedClass(schema, "UnknownCity", "{ 'directory' : 'unknown' }");
+
+    for (String className : new String[] { "NioCity", "MMapCity", "NrtCity", "UnknownCity" }) {
+      for (int i = 0; i < 20; i++) {
+        ODocument doc = new ODocument(className);
+        doc.field("name", i % 2 == 0 ? "Rome" : "London");
+        databaseDocumentTx.save(doc);
+      }
+    }
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testNioDirectory() throws IOException {
+    Assert.assertTrue(getDirectory("NioCity") instanceof NIOFSDirectory);
+    Assert.assertEquals(count("NioCity"), 10);
+  }
+
+  @Test
+  public void testMMapDirectory() throws IOException {
+    // 32-BIT JVMS FALL BACK TO NIO
+    final Class<? extends Directory> expected = Constants.JRE_IS_64BIT ? MMapDirectory.class : NIOFSDirectory.class;
+    Assert.assertTrue(expected.isInstance(getDirectory("MMapCity")));
+    Assert.assertEquals(count("MMapCity"), 10);
+  }
+
+  @Test
+  public void testNrtCachingDirectory() throws IOException {
+    final Directory directory = getDirectory("NrtCity");
+    Assert.assertTrue(directory instanceof NRTCachingDirectory);
+    Assert.assertTrue(directory.toString().contains("maxCacheMB=16.0"), directory.toString());
+    Assert.assertTrue(directory.toString().contains("maxMergeSizeMB=2.0"), directory.toString());
+    Assert.assertEquals(count("NrtCity"), 10);
+  }
+
+  @Test
+  public void testUnknownDirectoryFallsBackToNio() throws IOException {
+    Assert.assertTrue(getDirectory("UnknownCity") instanceof NIOFSDirectory);
+    Assert.assertEquals(count("UnknownCity"), 10);
+  }
+
+  private void createIndexedClass(OSchema schema, String className, String metadata) {
+    OClass oClass = schema.createClass(className);
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index " + className + ".name on " + className + " (name) FULLTEXT ENGINE LUCENE METADATA "
+            + metadata)).execute();
+  }
+
+  private OIndex<?> getIndex(String className) {
+    return databaseDocumentTx.getMetadata().getIndexManager().getIndex(className + ".name");
+  }
+
+  private Directory getDirectory(String className) throws IOException {
+    final Directory directory = ((DirectoryReader) ((OLuceneIndex) getIndex(className).getInternal()).searcher()
+        .getIndexReader()).directory();
+    // THE DIRECTORIES ON DISK ARE WRAPPED TO THROTTLE THEIR MERGES
+    return directory instanceof RateLimitedDirectoryWrapper ? ((RateLimitedDirectoryWrapper) directory).getDelegate() : directory;
+  }
+
+  private long count(String className) {
+    return getIndex(className).count("Rome");
+  }
+}
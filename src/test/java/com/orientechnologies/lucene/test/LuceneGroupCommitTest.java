@@ -0,0 +1,156 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.core.storage.OStorage;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Checks that the commits requested by the writes are deferred for the latency window and executed once for all of them, or at
+ * once when the batch is full, and that the writes still pending are durable when the database is closed.
+ */
+@Test(groups = "embedded")
+public class LuceneGroupCommitTest extends BaseLuceneTest {
+
+  private static final long COMMIT_LATENCY = 2000;
+  private static final int  BATCH_SIZE     = 10;
+
+  public LuceneGroupCommitTest() {
+    super();
+  }
+
+  public LuceneGroupCommitTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "groupCommit";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass city = schema.createClass("City");
+    city.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE METADATA { 'commitLatency' : "
+            + COMMIT_LATENCY + " }")).execute();
+
+    // THE LATENCY WINDOW NEVER EXPIRES DURING THE TEST
+    OClass town = schema.createClass("Town");
+    town.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index Town.name on Town (name) FULLTEXT ENGINE LUCENE METADATA { 'commitLatency' : 600000, "
+            + "'commitBatchSize' : " + BATCH_SIZE + " }")).execute();
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testCommitsAreDeferredAndGrouped() throws InterruptedException {
+    final long commits = getMetric("City.name", "commit.count");
+
+    for (int i = 0; i < BATCH_SIZE; i++)
+      save("City", "Rome");
+
+    // NOT COMMITTED YET, BUT ALREADY VISIBLE
+    Assert.assertTrue(getMetric("City.name", "commit.pending") >= BATCH_SIZE);
+    Assert.assertEquals(getMetric("City.name", "commit.count"), commits);
+    Assert.assertEquals(query("select from City where name lucene 'Rome'").size(), BATCH_SIZE);
+
+    // ONE COMMIT FOR ALL THE WRITES OF THE WINDOW
+    waitForCommits("City.name", commits + 1, 5 * COMMIT_LATENCY);
+    Assert.assertEquals(getMetric("City.name", "commit.pending"), 0);
+  }
+
+  @Test
+  public void testFullBatchCommitsAtOnce() throws InterruptedException {
+    final long commits = getMetric("Town.name", "commit.count");
+
+    for (int i = 0; i < BATCH_SIZE; i++)
+      save("Town", "Milan");
+
+    waitForCommits("Town.name", commits + 1, 5000);
+    Assert.assertEquals(getMetric("Town.name", "commit.pending"), 0);
+  }
+
+  @Test(dependsOnMethods = "testFullBatchCommitsAtOnce")
+  public void testPendingCommitsAreDurableOnClose() {
+    final long commits = getMetric("Town.name", "commit.count");
+
+    for (int i = 0; i < BATCH_SIZE / 2; i++)
+      save("Town", "Turin");
+
+    Assert.assertEquals(getMetric("Town.name", "commit.count"), commits);
+    Assert.assertTrue(getMetric("Town.name", "commit.pending") > 0);
+
+    // THE INDEX IS CLOSED WITH ITS STORAGE, AND LOADED AGAIN FROM DISK
+    final String url = databaseDocumentTx.getURL();
+    final OStorage storage = databaseDocumentTx.getStorage();
+    databaseDocumentTx.close();
+    storage.close(true, false);
+
+    databaseDocumentTx = new ODatabaseDocumentTx(url);
+    databaseDocumentTx.open("admin", "admin");
+
+    Assert.assertEquals(query("select from Town where name lucene 'Turin'").size(), BATCH_SIZE / 2);
+    Assert.assertEquals(query("select from Town where name lucene 'Milan'").size(), BATCH_SIZE);
+  }
+
+  private void waitForCommits(String indexName, long commits, long timeout) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeout;
+    while (getMetric(indexName, "commit.count") < commits && System.currentTimeMillis() < deadline)
+      Thread.sleep(50);
+    Assert.assertEquals(getMetric(indexName, "commit.count"), commits);
+  }
+
+  private void save(String className, String name) {
+    ODocument doc = new ODocument(className);
+    doc.field("name", name);
+    databaseDocumentTx.save(doc);
+  }
+
+  private List<ODocument> query(String sql) {
+    return databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(sql));
+  }
+
+  private long getMetric(String indexName, String metric) {
+    OIndex<?> idx = databaseDocumentTx.getMetadata().getIndexManager().getIndex(indexName);
+    return ((Number) ((OLuceneIndex) idx.getInternal()).getMetrics().get(metric)).longValue();
+  }
+}
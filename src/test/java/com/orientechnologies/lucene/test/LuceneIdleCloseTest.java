@@ -0,0 +1,171 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Checks that an index closed while idle is opened again on its next use, with its facet taxonomy and its searchers in sync with
+ * the new writer.
+ */
+@Test(groups = "embedded")
+public class LuceneIdleCloseTest extends BaseLuceneTest {
+
+  private static final long IDLE_TIMEOUT = 300;
+
+  public LuceneIdleCloseTest() {
+    super();
+  }
+
+  public LuceneIdleCloseTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "idleClose";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("Item");
+
+    oClass.createProperty("name", OType.STRING);
+    oClass.createProperty("category", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index Item.name_category on Item (name,category) FULLTEXT ENGINE LUCENE METADATA { 'idleTimeout' : "
+            + IDLE_TIMEOUT + ", 'reopenMinStale' : 20, 'facetFields' : ['category'] }")).execute();
+
+    saveItem("Pioneer", "Electronic/HiFi");
+    saveItem("Philips", "Electronic/HiFi");
+
+    OClass town = schema.createClass("Town");
+    town.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(new OCommandSQL("create index Town.name on Town (name) FULLTEXT ENGINE LUCENE")).execute();
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testOpenedOnLoadByDefault() {
+    // LAZY OPEN IS OPT-IN: NOT USED YET, BUT ALREADY OPEN
+    Assert.assertEquals(getMetric("Town.name", "index.open"), 1);
+  }
+
+  @Test
+  public void testLazyOpenAfterIdleClose() throws InterruptedException {
+
+    Assert.assertEquals(query("select from Item where name lucene '(name:P*)'").size(), 2);
+
+    waitForIdleClose();
+
+    // THE NEXT USE OPENS THE INDEX AGAIN
+    Assert.assertEquals(query("select from Item where name lucene '(name:P*)'").size(), 2);
+    Assert.assertEquals(getMetric("index.open"), 1);
+  }
+
+  @Test(dependsOnMethods = "testLazyOpenAfterIdleClose")
+  public void testReopenFacetedIndexAfterIdleClose() throws InterruptedException {
+
+    waitForIdleClose();
+
+    // THE TAXONOMY WRITER OF THE CLOSED INDEX RELEASED THE LOCK OF ITS DIRECTORY
+    saveItem("Panasonic", "Electronic/TV");
+    Assert.assertEquals(getMetric("index.open"), 1);
+    assertFacetCount(3);
+
+    // THE TAXONOMY IS COMMITTED ON CLOSE
+    waitForIdleClose();
+    assertFacetCount(3);
+  }
+
+  @Test(dependsOnMethods = "testReopenFacetedIndexAfterIdleClose")
+  public void testReadsAfterReopenDoNotWaitForThePreviousWriter() throws InterruptedException {
+
+    // EVERY QUERY AFTER A WRITE WAITS FOR A REFRESH: THE GENERATION OF THE WRITER GROWS WITH THEM
+    for (int i = 0; i < 200; i++) {
+      saveItem("Sony" + i, "Electronic/TV");
+      Assert.assertEquals(query("select from Item where name lucene 'Sony" + i + "'").size(), 1);
+    }
+
+    waitForIdleClose();
+
+    final long start = System.currentTimeMillis();
+    saveItem("Sharp", "Electronic/TV");
+    Assert.assertEquals(query("select from Item where name lucene 'Sharp'").size(), 1);
+    // THE NEW WRITER STARTS AGAIN FROM THE FIRST GENERATION: WAITING FOR THE PREVIOUS ONE WOULD TAKE 200 REFRESHES
+    Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+  }
+
+  private void assertFacetCount(int count) {
+    List<ODocument> result = query("select *,$facet from Item where name lucene '(name:P*)' limit 1");
+    Assert.assertEquals(result.size(), 1);
+
+    List<ODocument> facets = result.get(0).field("$facet");
+    Assert.assertEquals(facets.size(), 1);
+    Assert.assertEquals(facets.get(0).field("dim"), "category");
+    Assert.assertEquals(facets.get(0).field("value"), count);
+  }
+
+  private void waitForIdleClose() throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 20 * IDLE_TIMEOUT;
+    while (getMetric("index.open") != 0 && System.currentTimeMillis() < deadline)
+      Thread.sleep(IDLE_TIMEOUT / 3);
+    Assert.assertEquals(getMetric("index.open"), 0);
+  }
+
+  private void saveItem(String name, String category) {
+    ODocument doc = new ODocument("Item");
+    doc.field("name", name);
+    doc.field("category", category);
+    databaseDocumentTx.save(doc);
+  }
+
+  private List<ODocument> query(String sql) {
+    return databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(sql));
+  }
+
+  private long getMetric(String metric) {
+    return getMetric("Item.name_category", metric);
+  }
+
+  private long getMetric(String indexName, String metric) {
+    OIndex<?> idx = databaseDocumentTx.getMetadata().getIndexManager().getIndex(indexName);
+    return ((Number) ((OLuceneIndex) idx.getInternal()).getMetrics().get(metric)).longValue();
+  }
+}
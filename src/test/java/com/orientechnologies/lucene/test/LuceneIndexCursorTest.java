@@ -0,0 +1,144 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.lucene.collections.LuceneIndexCursor;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexCursor;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks that the cursors of a Lucene index stream the hits in pages sized on the prefetch size, and give the searcher back when
+ * they are exhausted or closed.
+ */
+@Test(groups = "embedded")
+public class LuceneIndexCursorTest extends BaseLuceneTest {
+
+  private final static int DOCUMENTS = 500;
+
+  public LuceneIndexCursorTest() {
+    super();
+  }
+
+  public LuceneIndexCursorTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "indexCursor";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE METADATA { 'resultPrefetch' : false }"))
+        .execute();
+
+    for (int i = 0; i < DOCUMENTS; i++) {
+      ODocument doc = new ODocument("City");
+      doc.field("name", i % 2 == 0 ? "Rome" : "London");
+      databaseDocumentTx.save(doc);
+    }
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testCursorStreamsAllTheDocuments() {
+
+    final long open = getMetric("leases.open");
+    final long fetched = getMetric("hits.fetched");
+
+    OIndexCursor cursor = getIndex().getInternal().cursor();
+    cursor.setPrefetchSize(50);
+
+    Map.Entry<Object, OIdentifiable> entry = cursor.nextEntry();
+    Assert.assertNotNull(entry);
+    Assert.assertNotNull(entry.getValue());
+    // ONLY THE FIRST PAGE IS COLLECTED
+    Assert.assertEquals(getMetric("hits.fetched") - fetched, 50);
+
+    final Set<ORID> rids = new HashSet<ORID>();
+    rids.add(entry.getValue().getIdentity());
+    while (cursor.hasNext())
+      rids.add(cursor.next().getIdentity());
+
+    Assert.assertEquals(rids.size(), DOCUMENTS);
+    Assert.assertNull(cursor.nextEntry());
+    Assert.assertEquals(getMetric("leases.open"), open);
+  }
+
+  @Test
+  public void testCloseReleasesTheSearcher() {
+
+    final long open = getMetric("leases.open");
+
+    OIndexCursor cursor = getIndex().getInternal().cursor();
+    Assert.assertTrue(cursor instanceof LuceneIndexCursor);
+    Assert.assertNotNull(cursor.next());
+    Assert.assertEquals(getMetric("leases.open"), open + 1);
+
+    ((LuceneIndexCursor) cursor).close();
+    Assert.assertEquals(getMetric("leases.open"), open);
+  }
+
+  @Test
+  public void testToValuesOfAQuery() {
+
+    final long open = getMetric("leases.open");
+
+    OIndexCursor cursor = getIndex().getInternal().iterateEntriesBetween("Rome", true, "Rome", true, true);
+    Assert.assertEquals(cursor.toValues().size(), DOCUMENTS / 2);
+    Assert.assertFalse(cursor.hasNext());
+    Assert.assertEquals(getMetric("leases.open"), open);
+  }
+
+  private OIndex<?> getIndex() {
+    return databaseDocumentTx.getMetadata().getIndexManager().getIndex("City.name");
+  }
+
+  private long getMetric(String metric) {
+    return ((Number) ((OLuceneIndex) getIndex().getInternal()).getMetrics().get(metric)).longValue();
+  }
+}
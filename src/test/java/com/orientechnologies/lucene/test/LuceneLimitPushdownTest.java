@@ -0,0 +1,125 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Checks that the SKIP and LIMIT of a query bound the hits collected by the searches.
+ */
+@Test(groups = "embedded")
+public class LuceneLimitPushdownTest extends BaseLuceneTest {
+
+  public LuceneLimitPushdownTest() {
+    super();
+  }
+
+  public LuceneLimitPushdownTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "limitPushdown";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE METADATA { 'resultPrefetch' : false }"))
+        .execute();
+
+    OClass town = schema.createClass("Town");
+
+    town.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(new OCommandSQL("create index Town.name on Town (name) FULLTEXT ENGINE LUCENE")).execute();
+
+    for (int i = 0; i < 300; i++) {
+      ODocument doc = new ODocument("City");
+      doc.field("name", "Rome");
+      databaseDocumentTx.save(doc);
+
+      doc = new ODocument("Town");
+      doc.field("name", "Rome");
+      databaseDocumentTx.save(doc);
+    }
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testLimitBoundsTheFirstPage() {
+
+    long fetched = getFetchedHits();
+    List<ODocument> docs = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(
+        "select from City where name LUCENE 'Rome' limit 5"));
+    Assert.assertEquals(docs.size(), 5);
+    Assert.assertEquals(getFetchedHits() - fetched, 5);
+
+    fetched = getFetchedHits();
+    docs = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select from City where name LUCENE 'Rome' skip 10 limit 5"));
+    Assert.assertEquals(docs.size(), 5);
+    Assert.assertEquals(getFetchedHits() - fetched, 15);
+  }
+
+  @Test
+  public void testNoPrefetchBeyondTheLimit() {
+
+    long fetched = getFetchedHits("Town.name");
+    List<ODocument> docs = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(
+        "select from Town where name LUCENE 'Rome' limit 20"));
+    Assert.assertEquals(docs.size(), 20);
+    Assert.assertEquals(getFetchedHits("Town.name") - fetched, 20);
+
+    // WITHOUT LIMIT THE NEXT PAGES ARE PREFETCHED, AND THE WHOLE RESULT IS STILL RETURNED ONCE
+    docs = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select from Town where name LUCENE 'Rome'"));
+    Assert.assertEquals(docs.size(), 300);
+  }
+
+  private long getFetchedHits() {
+    return getFetchedHits("City.name");
+  }
+
+  private long getFetchedHits(String indexName) {
+    OIndex<?> idx = databaseDocumentTx.getMetadata().getIndexManager().getIndex(indexName);
+    return ((Number) ((OLuceneIndex) idx.getInternal()).getMetrics().get("hits.fetched")).longValue();
+  }
+}
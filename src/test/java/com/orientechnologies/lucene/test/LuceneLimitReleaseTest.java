@@ -0,0 +1,144 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.lucene.collections.OFullTextCompositeKey;
+import com.orientechnologies.lucene.query.QueryContext;
+import com.orientechnologies.orient.core.command.OBasicCommandContext;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that a result set gives its searcher back once the LIMIT is consumed, and that iterating past the LIMIT after that
+ * still returns every hit exactly once, even when the index changed meanwhile.
+ */
+@Test(groups = "embedded")
+public class LuceneLimitReleaseTest extends BaseLuceneTest {
+
+  private static final int LIMIT = 10;
+
+  public LuceneLimitReleaseTest() {
+    super();
+  }
+
+  public LuceneLimitReleaseTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "limitRelease";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+    oClass.createProperty("name", OType.STRING);
+
+    databaseDocumentTx.command(
+        new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE METADATA { 'resultPrefetch' : false }"))
+        .execute();
+
+    for (int i = 0; i < 200; i++)
+      save("Rome");
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testIterationPastTheLimit() {
+
+    final List<ORID> all = new ArrayList<ORID>();
+    for (OIdentifiable hit : get(new OBasicCommandContext()))
+      all.add(hit.getIdentity());
+    Assert.assertEquals(all.size(), 200);
+
+    final int openLeases = getOpenLeases();
+
+    final OBasicCommandContext context = new OBasicCommandContext();
+    context.setVariable(QueryContext.LIMIT, LIMIT);
+    final Iterator<OIdentifiable> it = get(context).iterator();
+
+    final List<ORID> returned = new ArrayList<ORID>();
+    for (int i = 0; i < LIMIT; i++) {
+      Assert.assertTrue(it.hasNext());
+      returned.add(it.next().getIdentity());
+    }
+    // THE LIMIT IS CONSUMED: THE SEARCHER IS GIVEN BACK EVEN IF THE ITERATOR IS ABANDONED
+    Assert.assertEquals(getOpenLeases(), openLeases);
+
+    // THE NEXT PAGES RUN ON A NEW SEARCHER, THAT ALSO SEES THIS DOCUMENT
+    final ORID added = save("Rome").getIdentity();
+    while (it.hasNext())
+      returned.add(it.next().getIdentity());
+
+    final Set<ORID> unique = new HashSet<ORID>(returned);
+    Assert.assertEquals(unique.size(), returned.size(), "Hits returned twice");
+    Assert.assertEquals(returned.subList(0, LIMIT), all.subList(0, LIMIT));
+    Assert.assertTrue(unique.containsAll(all));
+    Assert.assertTrue(unique.contains(added));
+    Assert.assertEquals(returned.size(), all.size() + 1);
+
+    // EXHAUSTED: RELEASED AGAIN
+    Assert.assertEquals(getOpenLeases(), openLeases);
+  }
+
+  private ODocument save(String name) {
+    ODocument doc = new ODocument("City");
+    doc.field("name", name);
+    return databaseDocumentTx.save(doc);
+  }
+
+  private OIndex<?> getIndex() {
+    return databaseDocumentTx.getMetadata().getIndexManager().getIndex("City.name");
+  }
+
+  private Collection<OIdentifiable> get(OBasicCommandContext context) {
+    return (Collection<OIdentifiable>) getIndex().get(new OFullTextCompositeKey(Arrays.asList("Rome")).setContext(context));
+  }
+
+  private int getOpenLeases() {
+    return ((Number) ((OLuceneIndex) getIndex().getInternal()).getMetrics().get("leases.open")).intValue();
+  }
+}
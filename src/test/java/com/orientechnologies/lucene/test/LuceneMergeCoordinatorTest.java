@@ -0,0 +1,195 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.manager.OLuceneMergeCoordinator;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogDocMergePolicy;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.store.RateLimitedDirectoryWrapper;
+import org.apache.lucene.util.Version;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the merge coordinator: the global merge threads shared out among the writers, which never wait for each other, and the
+ * merge rate of the throttled directories, lowered by the foreground writes and raised back when they stop.
+ */
+@Test(groups = "embedded")
+public class LuceneMergeCoordinatorTest {
+
+  private static final int WRITERS = 3;
+  private static final int DOCS    = 500;
+
+  @AfterMethod
+  public void deInit() {
+    OLuceneMergeCoordinator.setMaxMerges(Runtime.getRuntime().availableProcessors() / 2);
+    OLuceneMergeCoordinator.setRate(OLuceneMergeCoordinator.DEFAULT_MAX_MB_PER_SEC, OLuceneMergeCoordinator.DEFAULT_MIN_MB_PER_SEC,
+        OLuceneMergeCoordinator.DEFAULT_BUSY_WRITES_PER_SEC);
+  }
+
+  @Test
+  public void testWritersMergeWithoutWaitingForEachOther() throws Exception {
+    // FEWER GLOBAL THREADS THAN WRITERS: EACH WRITER STILL RUNS ITS OWN MERGES
+    OLuceneMergeCoordinator.setMaxMerges(1);
+
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final List<RAMDirectory> directories = new ArrayList<RAMDirectory>();
+    final List<Thread> writers = new ArrayList<Thread>();
+    for (int i = 0; i < WRITERS; i++) {
+      final RAMDirectory directory = new RAMDirectory();
+      directories.add(directory);
+      writers.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            indexAndMerge(directory);
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      });
+    }
+    for (Thread writer : writers)
+      writer.start();
+    for (Thread writer : writers) {
+      writer.join(60000);
+      Assert.assertFalse(writer.isAlive());
+    }
+
+    Assert.assertNull(error.get());
+    Assert.assertEquals(OLuceneMergeCoordinator.getRunningMerges(), 0);
+
+    for (RAMDirectory directory : directories) {
+      final DirectoryReader reader = DirectoryReader.open(directory);
+      try {
+        // ALL THE SEGMENTS WERE MERGED, NONE OF THE WRITERS STALLED ON THE MERGES OF ANOTHER
+        Assert.assertEquals(reader.leaves().size(), 1);
+        Assert.assertEquals(reader.numDocs(), DOCS);
+      } finally {
+        reader.close();
+      }
+      directory.close();
+    }
+  }
+
+  @Test
+  public void testThreadsAreSharedAmongWriters() throws Exception {
+    OLuceneMergeCoordinator.setMaxMerges(64);
+
+    final IndexWriter first = newWriter(new RAMDirectory());
+    try {
+      final ConcurrentMergeScheduler firstScheduler = (ConcurrentMergeScheduler) first.getConfig().getMergeScheduler();
+      final int alone = OLuceneMergeCoordinator.getThreadsPerWriter();
+      Assert.assertEquals(firstScheduler.getMaxThreadCount(), alone);
+
+      // A NEW WRITER TAKES ITS SHARE FROM THE OTHERS
+      final IndexWriter second = newWriter(new RAMDirectory());
+      final int shared = OLuceneMergeCoordinator.getThreadsPerWriter();
+      Assert.assertTrue(shared < alone);
+      Assert.assertEquals(firstScheduler.getMaxThreadCount(), shared);
+      Assert.assertEquals(((ConcurrentMergeScheduler) second.getConfig().getMergeScheduler()).getMaxThreadCount(), shared);
+
+      // AND GIVES IT BACK ON CLOSE
+      second.close();
+      Assert.assertEquals(OLuceneMergeCoordinator.getThreadsPerWriter(), alone);
+      Assert.assertEquals(firstScheduler.getMaxThreadCount(), alone);
+    } finally {
+      first.close();
+    }
+  }
+
+  @Test
+  public void testWritesLowerTheMergeRate() throws Exception {
+    OLuceneMergeCoordinator.setRate(40, 5, 10);
+
+    final RAMDirectory directory = new RAMDirectory();
+    final RateLimitedDirectoryWrapper throttled = (RateLimitedDirectoryWrapper) OLuceneMergeCoordinator.throttle(directory);
+    try {
+      // NO MERGE RUNNING: A MERGE WOULD GET THE WHOLE GLOBAL RATE
+      Assert.assertEquals(getMergeRate(throttled), OLuceneMergeCoordinator.getMBPerSec(), 0.001);
+
+      // FAR ABOVE THE BUSY THRESHOLD: THE RATE GOES DOWN TO THE MINIMUM
+      for (int i = 0; i < 1000; i++)
+        OLuceneMergeCoordinator.recordWrite();
+      Assert.assertTrue(waitForRate(5));
+      Assert.assertEquals(getMergeRate(throttled), 5, 0.001);
+
+      // NO MORE WRITES: BACK TO THE MAXIMUM
+      Assert.assertTrue(waitForRate(40));
+      Assert.assertEquals(getMergeRate(throttled), 40, 0.001);
+    } finally {
+      throttled.close();
+    }
+  }
+
+  private static void indexAndMerge(RAMDirectory directory) throws Exception {
+    final IndexWriter writer = newWriter(directory);
+    try {
+      for (int i = 0; i < DOCS; i++) {
+        final Document doc = new Document();
+        doc.add(new StringField("id", String.valueOf(i), Field.Store.YES));
+        writer.addDocument(doc);
+      }
+      writer.forceMerge(1);
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static IndexWriter newWriter(RAMDirectory directory) throws IOException {
+    final IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_47, new StandardAnalyzer(Version.LUCENE_47));
+    // MANY SMALL SEGMENTS, MERGED TWO BY TWO
+    config.setMaxBufferedDocs(2);
+    final LogDocMergePolicy mergePolicy = new LogDocMergePolicy();
+    mergePolicy.setMergeFactor(2);
+    config.setMergePolicy(mergePolicy);
+    config.setMergeScheduler(OLuceneMergeCoordinator.newMergeScheduler());
+    return new IndexWriter(directory, config);
+  }
+
+  private static double getMergeRate(RateLimitedDirectoryWrapper directory) {
+    return directory.getMaxWriteMBPerSec(IOContext.Context.MERGE).doubleValue();
+  }
+
+  private static boolean waitForRate(double mbPerSec) throws InterruptedException {
+    // THE RATE IS RECOMPUTED EVERY SECOND
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < deadline) {
+      if (OLuceneMergeCoordinator.getMBPerSec() == mbPerSec)
+        return true;
+      Thread.sleep(20);
+    }
+    return false;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.Collection;
+
+@Test(groups = "embedded")
+public class LuceneParallelRebuildTest extends BaseLuceneTest {
+
+  public LuceneParallelRebuildTest() {
+    super();
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "parallelRebuild";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+    oClass.addCluster("City_1");
+    oClass.createProperty("name", OType.STRING);
+
+    for (int i = 0; i < 1000; i++) {
+      ODocument doc = new ODocument("City");
+      doc.field("name", i % 2 == 0 ? "Rome" : "London");
+      databaseDocumentTx.save(doc, i % 3 == 0 ? "City_1" : "City");
+    }
+
+    databaseDocumentTx.command(
+        new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE METADATA { 'rebuildThreads' : 4 }"))
+        .execute();
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testParallelRebuild() throws Exception {
+
+    databaseDocumentTx.getMetadata().reload();
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OIndex idx = schema.getClass("City").getClassIndex("City.name");
+
+    Assert.assertEquals(idx.getSize(), 1000);
+    Assert.assertEquals(((Collection<?>) idx.get("Rome")).size(), 500);
+
+    databaseDocumentTx.command(new OCommandSQL("rebuild index City.name")).execute();
+
+    Assert.assertEquals(idx.getSize(), 1000);
+    Assert.assertEquals(((Collection<?>) idx.get("Rome")).size(), 500);
+    Assert.assertEquals(((Collection<?>) idx.get("London")).size(), 500);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the parsed queries are cached per index, bounded in number, and dropped when the index is opened again.
+ */
+@Test(groups = "embedded")
+public class LuceneQueryCacheTest extends BaseLuceneTest {
+
+  public LuceneQueryCacheTest() {
+    super();
+  }
+
+  public LuceneQueryCacheTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "queryCache";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE METADATA { 'queryCacheSize' : 2 }"))
+        .execute();
+
+    OClass town = schema.createClass("Town");
+
+    town.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index Town.name on Town (name) FULLTEXT ENGINE LUCENE METADATA { 'idleTimeout' : 300 }"))
+        .execute();
+
+    for (int i = 0; i < 10; i++) {
+      ODocument doc = new ODocument("City");
+      doc.field("name", i % 2 == 0 ? "Rome" : "London");
+      databaseDocumentTx.save(doc);
+
+      doc = new ODocument("Town");
+      doc.field("name", "Rome");
+      databaseDocumentTx.save(doc);
+    }
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testRepeatedQueryIsParsedOnce() {
+
+    final long hits = getMetric("City.name", "queryCache.hits");
+    final long misses = getMetric("City.name", "queryCache.misses");
+
+    Assert.assertEquals(count("City.name", "Rom*"), 5);
+    Assert.assertEquals(getMetric("City.name", "queryCache.misses"), misses + 1);
+
+    Assert.assertEquals(count("City.name", "Rom*"), 5);
+    Assert.assertEquals(getMetric("City.name", "queryCache.hits"), hits + 1);
+    Assert.assertEquals(getMetric("City.name", "queryCache.misses"), misses + 1);
+  }
+
+  @Test(dependsOnMethods = "testRepeatedQueryIsParsedOnce")
+  public void testCacheIsBounded() {
+
+    Assert.assertEquals(count("City.name", "Rome"), 5);
+    Assert.assertEquals(count("City.name", "London"), 5);
+    Assert.assertEquals(count("City.name", "Rome OR London"), 10);
+    Assert.assertEquals(getMetric("City.name", "queryCache.size"), 2);
+
+    // THE LEAST RECENTLY USED QUERY WAS EVICTED
+    final long misses = getMetric("City.name", "queryCache.misses");
+    Assert.assertEquals(count("City.name", "Rome"), 5);
+    Assert.assertEquals(getMetric("City.name", "queryCache.misses"), misses + 1);
+  }
+
+  @Test
+  public void testCacheIsDroppedOnReopen() throws InterruptedException {
+
+    Assert.assertEquals(count("Town.name", "Rome"), 10);
+    Assert.assertEquals(getMetric("Town.name", "queryCache.size"), 1);
+
+    final long deadline = System.currentTimeMillis() + 6000;
+    while (getMetric("Town.name", "index.open") != 0 && System.currentTimeMillis() < deadline)
+      Thread.sleep(100);
+    Assert.assertEquals(getMetric("Town.name", "index.open"), 0);
+
+    // OPENED AGAIN WITH ITS ANALYZERS: THE QUERY IS PARSED AGAIN
+    Assert.assertEquals(count("Town.name", "Rome"), 10);
+    Assert.assertEquals(getMetric("Town.name", "queryCache.size"), 1);
+    Assert.assertEquals(getMetric("Town.name", "queryCache.hits"), 0);
+  }
+
+  private long count(String indexName, String query) {
+    return databaseDocumentTx.getMetadata().getIndexManager().getIndex(indexName).count(query);
+  }
+
+  private long getMetric(String indexName, String metric) {
+    OIndex<?> idx = databaseDocumentTx.getMetadata().getIndexManager().getIndex(indexName);
+    return ((Number) ((OLuceneIndex) idx.getInternal()).getMetrics().get(metric)).longValue();
+  }
+}
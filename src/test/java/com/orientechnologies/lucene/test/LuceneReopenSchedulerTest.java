@@ -0,0 +1,182 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.manager.OLuceneReopenScheduler;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the refreshes of the searchers by the reopen scheduler: brought forward by the waiting readers, immediate for the
+ * generations the writer does not know, and stopped on close.
+ */
+@Test(groups = "embedded")
+public class LuceneReopenSchedulerTest {
+
+  private static final long   MAX_STALE = 60000;
+
+  private RAMDirectory        directory;
+  private IndexWriter         indexWriter;
+  private TrackingIndexWriter writer;
+  private SearcherManager     manager;
+
+  @BeforeMethod
+  public void init() throws IOException {
+    directory = new RAMDirectory();
+    indexWriter = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_47, new StandardAnalyzer(Version.LUCENE_47)));
+    writer = new TrackingIndexWriter(indexWriter);
+    manager = new SearcherManager(indexWriter, true, null);
+  }
+
+  @AfterMethod
+  public void deInit() throws IOException {
+    manager.close();
+    indexWriter.close();
+    directory.close();
+  }
+
+  @Test
+  public void testWaitersExpediteTheRefresh() throws Exception {
+    final OLuceneReopenScheduler.Reopener reopener = OLuceneReopenScheduler.schedule(writer, manager, MAX_STALE, 20);
+    try {
+      final long generation = writer.addDocument(newDocument("1"));
+
+      final long start = System.currentTimeMillis();
+      reopener.waitForGeneration(generation);
+      // FAR BEFORE THE MAXIMUM STALENESS
+      Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+      Assert.assertTrue(reopener.getSearchingGen() >= generation);
+
+      final IndexSearcher searcher = manager.acquire();
+      try {
+        Assert.assertEquals(searcher.getIndexReader().numDocs(), 1);
+      } finally {
+        manager.release(searcher);
+      }
+    } finally {
+      reopener.close();
+    }
+  }
+
+  @Test
+  public void testGenerationAboveTheWriterRefreshes() throws Exception {
+    // NO REFRESH BEFORE THE MAXIMUM STALENESS, EVEN WITH WAITERS
+    final OLuceneReopenScheduler.Reopener reopener = OLuceneReopenScheduler.schedule(writer, manager, MAX_STALE, MAX_STALE);
+    try {
+      writer.addDocument(newDocument("1"));
+
+      // LIKE A TOKEN OF A PREVIOUS WRITER: NOT WAITED FOR, THE SEARCHERS ARE REFRESHED AT ONCE
+      final long start = System.currentTimeMillis();
+      reopener.waitForGeneration(writer.getGeneration() + 10);
+      Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+
+      final IndexSearcher searcher = manager.acquire();
+      try {
+        Assert.assertEquals(searcher.getIndexReader().numDocs(), 1);
+      } finally {
+        manager.release(searcher);
+      }
+    } finally {
+      reopener.close();
+    }
+  }
+
+  @Test
+  public void testCancelledRefreshesLeaveTheQueue() throws Exception {
+    final int pending = OLuceneReopenScheduler.getPendingRefreshes();
+    final OLuceneReopenScheduler.Reopener reopener = OLuceneReopenScheduler.schedule(writer, manager, MAX_STALE, 20);
+    try {
+      // EVERY WAITER CANCELS THE REFRESH DUE AFTER THE MAXIMUM STALENESS AND SCHEDULES AN EARLIER ONE
+      for (int i = 0; i < 5; i++)
+        reopener.waitForGeneration(writer.addDocument(newDocument(String.valueOf(i))));
+      Assert.assertTrue(OLuceneReopenScheduler.getPendingRefreshes() <= pending + 1);
+    } finally {
+      reopener.close();
+    }
+    Assert.assertTrue(OLuceneReopenScheduler.getPendingRefreshes() <= pending);
+  }
+
+  @Test
+  public void testCloseWakesUpTheWaiters() throws Exception {
+    // NO REFRESH BEFORE THE MAXIMUM STALENESS, EVEN WITH WAITERS
+    final OLuceneReopenScheduler.Reopener reopener = OLuceneReopenScheduler.schedule(writer, manager, MAX_STALE, MAX_STALE);
+    final long generation = writer.addDocument(newDocument("1"));
+
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          reopener.waitForGeneration(generation);
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      }
+    };
+    waiter.start();
+
+    Thread.sleep(200);
+    Assert.assertTrue(waiter.isAlive());
+
+    reopener.close();
+    waiter.join(5000);
+    Assert.assertFalse(waiter.isAlive());
+    Assert.assertNull(error.get());
+    Assert.assertTrue(reopener.getSearchingGen() < generation);
+  }
+
+  @Test
+  public void testLag() throws Exception {
+    final OLuceneReopenScheduler.Reopener reopener = OLuceneReopenScheduler.schedule(writer, manager, MAX_STALE, 20);
+    try {
+      // THE NEXT REFRESH IS QUEUED UNTIL IT IS DUE
+      Assert.assertTrue(OLuceneReopenScheduler.getPendingRefreshes() > 0);
+
+      for (int i = 0; i < 5; i++)
+        reopener.waitForGeneration(writer.addDocument(newDocument(String.valueOf(i))));
+
+      Assert.assertTrue(OLuceneReopenScheduler.getAverageLag() >= 0);
+      Assert.assertTrue(OLuceneReopenScheduler.getMaxLag() >= OLuceneReopenScheduler.getAverageLag());
+    } finally {
+      reopener.close();
+    }
+  }
+
+  private static Document newDocument(String id) {
+    final Document doc = new Document();
+    doc.add(new StringField("id", id, Field.Store.YES));
+    return doc;
+  }
+}
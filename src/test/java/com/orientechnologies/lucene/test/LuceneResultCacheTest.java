@@ -0,0 +1,135 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Checks that repeated searches are answered by the result cache until the index changes, and that the spatial searches are not
+ * cached.
+ */
+@Test(groups = "embedded")
+public class LuceneResultCacheTest extends BaseLuceneTest {
+
+  public LuceneResultCacheTest() {
+    super();
+  }
+
+  public LuceneResultCacheTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "resultCache";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE")).execute();
+
+    OClass place = schema.createClass("Place");
+    place.createProperty("latitude", OType.DOUBLE);
+    place.createProperty("longitude", OType.DOUBLE);
+    databaseDocumentTx.command(new OCommandSQL("create index Place.l_lon on Place (latitude,longitude) SPATIAL ENGINE LUCENE"))
+        .execute();
+
+    for (int i = 0; i < 100; i++) {
+      ODocument doc = new ODocument("City");
+      doc.field("name", i % 2 == 0 ? "Rome" : "London");
+      databaseDocumentTx.save(doc);
+
+      doc = new ODocument("Place");
+      doc.field("latitude", 41.8 + i * 0.001);
+      doc.field("longitude", 12.4 + i * 0.001);
+      databaseDocumentTx.save(doc);
+    }
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testRepeatedSearchHitsTheCache() {
+
+    List<ODocument> docs = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select from City where name LUCENE 'Rome'"));
+    Assert.assertEquals(docs.size(), 50);
+
+    final long hits = getMetric("City.name", "resultCache.hits");
+    docs = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select from City where name LUCENE 'Rome'"));
+    Assert.assertEquals(docs.size(), 50);
+    Assert.assertEquals(getMetric("City.name", "resultCache.hits"), hits + 1);
+  }
+
+  @Test(dependsOnMethods = "testRepeatedSearchHitsTheCache")
+  public void testWriteInvalidatesTheCache() {
+
+    final long invalidations = getMetric("City.name", "resultCache.invalidations");
+
+    ODocument doc = new ODocument("City");
+    doc.field("name", "Rome");
+    databaseDocumentTx.save(doc);
+
+    List<ODocument> docs = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select from City where name LUCENE 'Rome'"));
+    Assert.assertEquals(docs.size(), 51);
+    Assert.assertTrue(getMetric("City.name", "resultCache.invalidations") > invalidations);
+  }
+
+  @Test
+  public void testSpatialSearchesAreNotCached() {
+
+    final String near = "select *,$distance from Place where [latitude,longitude,$spatial] NEAR [41.85,12.45,{\"maxDistance\": 5}]";
+    final String within = "select from Place where [latitude,longitude] WITHIN [[41.7,12.3],[42.0,12.6]]";
+
+    for (int i = 0; i < 2; i++) {
+      Assert.assertFalse(databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(near)).isEmpty());
+      Assert.assertEquals(databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(within)).size(), 100);
+    }
+
+    // THE DISTANCE SORT AND THE SHAPE FILTERS ARE ONLY EQUAL TO THEMSELVES: THEIR ENTRIES WOULD NEVER BE FOUND AGAIN
+    Assert.assertEquals(getMetric("Place.l_lon", "resultCache.size"), 0);
+    Assert.assertEquals(getMetric("Place.l_lon", "resultCache.hits"), 0);
+  }
+
+  private long getMetric(String indexName, String metric) {
+    OIndex<?> idx = databaseDocumentTx.getMetadata().getIndexManager().getIndex(indexName);
+    return ((Number) ((OLuceneIndex) idx.getInternal()).getMetrics().get(metric)).longValue();
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndexType;
+import com.orientechnologies.lucene.collections.OLuceneRidResolver;
+import com.orientechnologies.lucene.manager.OLuceneIndexManagerAbstract;
+import com.orientechnologies.orient.core.id.OContextualRecordId;
+import com.orientechnologies.orient.core.id.ORecordId;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+/**
+ * Resolves hits to RIDs from the cluster and position doc values, across segments written with and without them.
+ */
+@Test(groups = "embedded")
+public class LuceneRidResolverTest {
+
+  private RAMDirectory directory;
+  private IndexWriter  indexWriter;
+
+  @BeforeMethod
+  public void init() throws IOException {
+    directory = new RAMDirectory();
+    // ONE SEGMENT PER COMMIT
+    indexWriter = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_47, new StandardAnalyzer(Version.LUCENE_47))
+        .setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES));
+  }
+
+  @AfterMethod
+  public void deInit() throws IOException {
+    indexWriter.close();
+    directory.close();
+  }
+
+  @Test
+  public void testResolveAcrossSegments() throws IOException {
+    // WRITTEN BEFORE THE DOC VALUES: NO FIELD AT ALL
+    indexWriter.addDocument(newDocument(new ORecordId(10, 1), false));
+    indexWriter.addDocument(newDocument(new ORecordId(10, 2), false));
+    indexWriter.commit();
+
+    indexWriter.addDocument(newDocument(new ORecordId(11, 1), true));
+    indexWriter.addDocument(newDocument(new ORecordId(11, 2), true));
+    indexWriter.commit();
+
+    // MIXED SEGMENT: ONLY SOME DOCUMENTS HAVE THE FIELD
+    indexWriter.addDocument(newDocument(new ORecordId(12, 1), false));
+    indexWriter.addDocument(newDocument(new ORecordId(12, 2), true));
+    indexWriter.commit();
+
+    final DirectoryReader reader = DirectoryReader.open(directory);
+    try {
+      Assert.assertEquals(reader.leaves().size(), 3);
+
+      final IndexSearcher searcher = new IndexSearcher(reader);
+      final ScoreDoc[] hits = searcher.search(new MatchAllDocsQuery(), 10, Sort.INDEXORDER).scoreDocs;
+      Assert.assertEquals(hits.length, 6);
+
+      final OContextualRecordId[] rids = new OLuceneRidResolver(searcher).resolve(hits);
+      Assert.assertNull(rids[0]);
+      Assert.assertNull(rids[1]);
+      Assert.assertEquals(rids[2], new ORecordId(11, 1));
+      Assert.assertEquals(rids[3], new ORecordId(11, 2));
+      Assert.assertNull(rids[4]);
+      Assert.assertEquals(rids[5], new ORecordId(12, 2));
+
+      // THE STORED RID OF THE FALLBACK IS STILL THERE
+      Assert.assertEquals(searcher.doc(hits[0].doc).get(OLuceneIndexManagerAbstract.RID), new ORecordId(10, 1).toString());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testResolveOutOfOrder() throws IOException {
+    for (int i = 0; i < 5; i++) {
+      indexWriter.addDocument(newDocument(new ORecordId(20 + i, i), true));
+      indexWriter.commit();
+    }
+
+    final DirectoryReader reader = DirectoryReader.open(directory);
+    try {
+      final OLuceneRidResolver resolver = new OLuceneRidResolver(reader);
+      // THE SEGMENTS ARE LOADED ON THEIR FIRST HIT, IN ANY ORDER
+      for (int doc = 4; doc >= 0; doc--)
+        Assert.assertEquals(resolver.resolve(doc), new ORecordId(20 + doc, doc));
+      Assert.assertEquals(resolver.resolve(2), new ORecordId(22, 2));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testResolveOnEmptyIndex() throws IOException {
+    indexWriter.commit();
+
+    final DirectoryReader reader = DirectoryReader.open(directory);
+    try {
+      Assert.assertNull(new OLuceneRidResolver(reader).resolve(0));
+    } finally {
+      reader.close();
+    }
+  }
+
+  private Document newDocument(ORecordId rid, boolean docValues) {
+    final Document doc = new Document();
+    doc.add(new StringField(OLuceneIndexManagerAbstract.RID, rid.toString(), Field.Store.YES));
+    if (docValues)
+      OLuceneIndexType.addRidDocValues(doc, rid);
+    return doc;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.collections.OFullTextCompositeKey;
+import com.orientechnologies.lucene.query.QueryContext;
+import com.orientechnologies.orient.core.command.OBasicCommandContext;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.OContextualRecordId;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Checks that hits carry their score unless the command context or the index metadata says no score is needed, in which case
+ * they come back unscored and in index order.
+ */
+@Test(groups = "embedded")
+public class LuceneScoringTest extends BaseLuceneTest {
+
+  private final List<OIdentifiable> romeCities = new ArrayList<OIdentifiable>();
+  private final List<OIdentifiable> romeTowns  = new ArrayList<OIdentifiable>();
+
+  public LuceneScoringTest() {
+    super();
+  }
+
+  public LuceneScoringTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "luceneScoring";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    createIndexedClass(schema, "City", "");
+    createIndexedClass(schema, "Town", " METADATA { 'scoring' : false }");
+
+    for (int i = 0; i < 50; i++) {
+      // DIFFERENT FIELD LENGTHS GIVE DIFFERENT SCORES, SO THE SCORED ORDER IS NOT THE INSERTION ORDER
+      final String name = i % 2 == 0 ? (i % 4 == 0 ? "Rome" : "Rome Capital City of Italy") : "London";
+      final ODocument city = save("City", name);
+      final ODocument town = save("Town", name);
+      if (name.startsWith("Rome")) {
+        romeCities.add(city.getIdentity());
+        romeTowns.add(town.getIdentity());
+      }
+    }
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testScoredByDefault() {
+
+    final Collection<OIdentifiable> hits = get("City", new OBasicCommandContext());
+
+    Assert.assertEquals(hits.size(), romeCities.size());
+    for (OIdentifiable hit : hits) {
+      Assert.assertNotNull(getScore(hit));
+    }
+  }
+
+  @Test
+  public void testScoreFreeFromContext() {
+
+    final OBasicCommandContext context = new OBasicCommandContext();
+    context.setVariable(QueryContext.SCORING, false);
+
+    final Collection<OIdentifiable> hits = get("City", context);
+
+    Assert.assertEquals(new ArrayList<OIdentifiable>(hits), romeCities);
+    for (OIdentifiable hit : hits) {
+      Assert.assertNull(getScore(hit));
+    }
+  }
+
+  @Test
+  public void testScoreFreeFromMetadata() {
+
+    final Collection<OIdentifiable> hits = get("Town", new OBasicCommandContext());
+
+    Assert.assertEquals(new ArrayList<OIdentifiable>(hits), romeTowns);
+    for (OIdentifiable hit : hits) {
+      Assert.assertNull(getScore(hit));
+    }
+  }
+
+  private void createIndexedClass(OSchema schema, String className, String metadata) {
+    OClass oClass = schema.createClass(className);
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index " + className + ".name on " + className + " (name) FULLTEXT ENGINE LUCENE" + metadata))
+        .execute();
+  }
+
+  private ODocument save(String className, String name) {
+    ODocument doc = new ODocument(className);
+    doc.field("name", name);
+    return databaseDocumentTx.save(doc);
+  }
+
+  private Collection<OIdentifiable> get(String className, OBasicCommandContext context) {
+    OIndex<?> idx = databaseDocumentTx.getMetadata().getIndexManager().getIndex(className + ".name");
+    return (Collection<OIdentifiable>) idx.get(new OFullTextCompositeKey(Arrays.asList("Rome")).setContext(context));
+  }
+
+  private Object getScore(OIdentifiable hit) {
+    final OContextualRecordId recordId = (OContextualRecordId) hit;
+    return recordId.getContext() == null ? null : recordId.getContext().get("score");
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.manager.OLuceneSearcherFactory;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.Version;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that the searchers built by the factory search the segments on the shared pool when the index allows it, with the same
+ * hits as a search in the caller thread.
+ */
+@Test(groups = "embedded")
+public class LuceneSearcherFactoryTest {
+
+  private static final int SEGMENTS = 8;
+  private static final int DOCUMENTS = 100;
+
+  private RAMDirectory     directory;
+  private DirectoryReader  reader;
+
+  @BeforeClass
+  public void init() throws IOException {
+    directory = new RAMDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_47, new StandardAnalyzer(Version.LUCENE_47));
+    config.setMergePolicy(NoMergePolicy.COMPOUND_FILES);
+    IndexWriter writer = new IndexWriter(directory, config);
+    for (int i = 0; i < SEGMENTS; i++) {
+      for (int j = 0; j < DOCUMENTS; j++) {
+        Document doc = new Document();
+        doc.add(new StringField("name", j % 2 == 0 ? "rome" : "london", Field.Store.YES));
+        writer.addDocument(doc);
+      }
+      // ONE SEGMENT PER COMMIT
+      writer.commit();
+    }
+    writer.close();
+    reader = DirectoryReader.open(directory);
+  }
+
+  @AfterClass
+  public void deInit() throws IOException {
+    reader.close();
+    directory.close();
+  }
+
+  @Test
+  public void testSegmentsSearchedOnTheSharedPool() throws IOException {
+    Assert.assertEquals(reader.leaves().size(), SEGMENTS);
+
+    final ThreadRecordingFilter filter = new ThreadRecordingFilter();
+    final IndexSearcher searcher = new OLuceneSearcherFactory(4, null).newSearcher(reader);
+    final TopDocs topDocs = searcher.search(new TermQuery(new Term("name", "rome")), filter, 1000);
+
+    Assert.assertEquals(topDocs.totalHits, SEGMENTS * DOCUMENTS / 2);
+    Assert.assertTrue(filter.runOnThePool(), "No segment searched on the pool: " + filter.threads);
+  }
+
+  @Test
+  public void testSegmentsSearchedInTheCaller() throws IOException {
+    final ThreadRecordingFilter filter = new ThreadRecordingFilter();
+    final IndexSearcher searcher = new OLuceneSearcherFactory(0, null).newSearcher(reader);
+    final TopDocs topDocs = searcher.search(new TermQuery(new Term("name", "rome")), filter, 1000);
+
+    Assert.assertEquals(topDocs.totalHits, SEGMENTS * DOCUMENTS / 2);
+    Assert.assertEquals(filter.threads, Collections.singleton(Thread.currentThread().getName()));
+  }
+
+  @Test
+  public void testSameHitsAsTheCaller() throws IOException {
+    final TermQuery query = new TermQuery(new Term("name", "london"));
+    final TopDocs parallel = new OLuceneSearcherFactory(4, null).newSearcher(reader).search(query, 50);
+    final TopDocs serial = new IndexSearcher(reader).search(query, 50);
+
+    Assert.assertEquals(parallel.totalHits, serial.totalHits);
+    Assert.assertEquals(parallel.scoreDocs.length, serial.scoreDocs.length);
+    for (int i = 0; i < serial.scoreDocs.length; i++)
+      Assert.assertEquals(parallel.scoreDocs[i].doc, serial.scoreDocs[i].doc);
+  }
+
+  /**
+   * Accepts the documents of Rome, recording the threads the segments are searched in.
+   */
+  private static class ThreadRecordingFilter extends Filter {
+    private final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+    private final Filter      rome    = new QueryWrapperFilter(new TermQuery(new Term("name", "rome")));
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+      threads.add(Thread.currentThread().getName());
+      return rome.getDocIdSet(context, acceptDocs);
+    }
+
+    private boolean runOnThePool() {
+      synchronized (threads) {
+        for (String thread : threads) {
+          if (thread.startsWith("OrientDB Lucene Searcher"))
+            return true;
+        }
+      }
+      return false;
+    }
+  }
+}
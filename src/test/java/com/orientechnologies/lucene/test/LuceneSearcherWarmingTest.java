@@ -0,0 +1,120 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.OLuceneIndex;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+/**
+ * Checks that the warm-up queries of the metadata run on every new searcher before it is published, unless warming is disabled,
+ * and that they do not get in the way of the opening of the index.
+ */
+@Test(groups = "embedded")
+public class LuceneSearcherWarmingTest extends BaseLuceneTest {
+
+  public LuceneSearcherWarmingTest() {
+    super();
+  }
+
+  public LuceneSearcherWarmingTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "searcherWarming";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    createIndexedClass(schema, "City", "{ 'warmQueries' : ['Rome'], 'warmSortFields' : ['name'], 'reopenMinStale' : 20 }");
+    createIndexedClass(schema, "Town", "{ 'warmQueries' : ['Rome'], 'warming' : false, 'reopenMinStale' : 20 }");
+
+    for (int i = 0; i < 10; i++) {
+      save("City", i % 2 == 0 ? "Rome" : "London");
+      save("Town", i % 2 == 0 ? "Rome" : "London");
+    }
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testWarmQueriesRunOnEveryNewSearcher() {
+
+    Assert.assertEquals(count("City", "London"), 5);
+
+    save("City", "London");
+    final long lookups = getQueryLookups("City");
+    // THE QUERY ITSELF, THEN THE WARM-UP QUERY OF THE SEARCHER REFRESHED FOR THE WRITE
+    Assert.assertEquals(count("City", "London"), 6);
+    Assert.assertTrue(getQueryLookups("City") - lookups >= 2);
+  }
+
+  @Test
+  public void testWarmingDisabled() {
+
+    Assert.assertEquals(count("Town", "London"), 5);
+
+    save("Town", "London");
+    final long lookups = getQueryLookups("Town");
+    Assert.assertEquals(count("Town", "London"), 6);
+    Assert.assertEquals(getQueryLookups("Town") - lookups, 1);
+  }
+
+  private void createIndexedClass(OSchema schema, String className, String metadata) {
+    OClass oClass = schema.createClass(className);
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index " + className + ".name on " + className + " (name) FULLTEXT ENGINE LUCENE METADATA "
+            + metadata)).execute();
+  }
+
+  private void save(String className, String name) {
+    ODocument doc = new ODocument(className);
+    doc.field("name", name);
+    databaseDocumentTx.save(doc);
+  }
+
+  private long count(String className, String query) {
+    return databaseDocumentTx.getMetadata().getIndexManager().getIndex(className + ".name").count(query);
+  }
+
+  private long getQueryLookups(String className) {
+    OIndex<?> idx = databaseDocumentTx.getMetadata().getIndexManager().getIndex(className + ".name");
+    final Map<String, Object> metrics = ((OLuceneIndex) idx.getInternal()).getMetrics();
+    return ((Number) metrics.get("queryCache.hits")).longValue() + ((Number) metrics.get("queryCache.misses")).longValue();
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the staleness modes of the searchers: strict reads see the writes of the thread, eventual reads never wait for a
+ * refresh, bounded reads wait only when the searcher is older than the bound.
+ */
+@Test(groups = "embedded")
+public class LuceneStalenessTest extends BaseLuceneTest {
+
+  private static final long MAX_STALENESS = 200;
+
+  public LuceneStalenessTest() {
+    super();
+  }
+
+  public LuceneStalenessTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "staleness";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    createIndexedClass(schema, "City", "");
+    // NO PERIODIC REFRESH DURING THE TEST
+    createIndexedClass(schema, "Town", "{ 'staleness' : 'eventual', 'reopenMaxStale' : 60000 }");
+    createIndexedClass(schema, "Village", "{ 'staleness' : 'bounded', 'maxStaleness' : " + MAX_STALENESS
+        + ", 'reopenMaxStale' : 60000 }");
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testStrictReadsSeeTheWrites() {
+
+    for (int i = 0; i < 20; i++) {
+      save("City");
+      Assert.assertEquals(count("City"), i + 1);
+    }
+  }
+
+  @Test
+  public void testEventualReadsDoNotWait() {
+
+    save("Town");
+    // THE SEARCHER OPENED BEFORE THE WRITE IS SERVED AS IT IS
+    final long start = System.currentTimeMillis();
+    Assert.assertEquals(count("Town"), 0);
+    Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+  }
+
+  @Test
+  public void testBoundedReads() throws InterruptedException {
+
+    save("Village");
+    Thread.sleep(MAX_STALENESS + 100);
+    // THE SEARCHER IS OLDER THAN THE BOUND: THE READ WAITS FOR A REFRESH
+    Assert.assertEquals(count("Village"), 1);
+
+    // JUST REFRESHED: SERVED WITHOUT WAITING
+    save("Village");
+    Assert.assertEquals(count("Village"), 1);
+
+    Thread.sleep(MAX_STALENESS + 100);
+    Assert.assertEquals(count("Village"), 2);
+  }
+
+  private void createIndexedClass(OSchema schema, String className, String metadata) {
+    OClass oClass = schema.createClass(className);
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(
+        new OCommandSQL("create index " + className + ".name on " + className + " (name) FULLTEXT ENGINE LUCENE"
+            + (metadata.isEmpty() ? "" : " METADATA " + metadata))).execute();
+  }
+
+  private void save(String className) {
+    ODocument doc = new ODocument(className);
+    doc.field("name", "Rome");
+    databaseDocumentTx.save(doc);
+  }
+
+  private long count(String className) {
+    return databaseDocumentTx.getMetadata().getIndexManager().getIndex(className + ".name").count("Rome");
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Commits and rolls back transactions with many puts, removes and updates: their entries reach the index writer in one batch at
+ * commit time, and not at all on rollback.
+ */
+@Test(groups = "embedded")
+public class LuceneTransactionBatchTest extends BaseLuceneTest {
+
+  private static final int RECORDS = 20;
+  private static final int ADDED   = 50;
+
+  private final List<ORID> rome    = new ArrayList<ORID>();
+
+  public LuceneTransactionBatchTest() {
+    super();
+  }
+
+  public LuceneTransactionBatchTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "transactionBatch";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE")).execute();
+
+    for (int i = 0; i < RECORDS; i++)
+      rome.add(save(new ODocument("City"), "Rome").getIdentity());
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testCommitManyOperations() {
+    databaseDocumentTx.begin();
+    for (int i = 0; i < ADDED; i++)
+      save(new ODocument("City"), "Paris");
+
+    // REMOVED
+    for (int i = 0; i < 10; i++)
+      databaseDocumentTx.delete(rome.get(i));
+
+    // REMOVED AND ADDED BACK WITH ANOTHER KEY: A SINGLE UPDATE BY RID
+    for (int i = 10; i < 15; i++)
+      save((ODocument) databaseDocumentTx.load(rome.get(i)), "London");
+
+    // ADDED TWICE
+    ODocument doc = save((ODocument) databaseDocumentTx.load(rome.get(15)), "Oslo");
+    save(doc, "Vienna");
+
+    // ADDED AND REMOVED
+    doc = save(new ODocument("City"), "Dublin");
+    databaseDocumentTx.delete(doc);
+    databaseDocumentTx.commit();
+
+    Assert.assertEquals(count("Paris"), ADDED);
+    Assert.assertEquals(count("Rome"), 4);
+    Assert.assertEquals(count("London"), 5);
+    Assert.assertEquals(count("Oslo"), 0);
+    Assert.assertEquals(count("Vienna"), 1);
+    Assert.assertEquals(count("Dublin"), 0);
+  }
+
+  @Test(dependsOnMethods = "testCommitManyOperations")
+  public void testRollbackManyOperations() {
+    databaseDocumentTx.begin();
+    for (int i = 0; i < ADDED; i++)
+      save(new ODocument("City"), "Berlin");
+
+    for (int i = 16; i < RECORDS; i++)
+      databaseDocumentTx.delete(rome.get(i));
+
+    for (int i = 10; i < 15; i++)
+      save((ODocument) databaseDocumentTx.load(rome.get(i)), "Madrid");
+    databaseDocumentTx.rollback();
+
+    Assert.assertEquals(count("Berlin"), 0);
+    Assert.assertEquals(count("Madrid"), 0);
+    Assert.assertEquals(count("Rome"), 4);
+    Assert.assertEquals(count("London"), 5);
+    Assert.assertEquals(count("Paris"), ADDED);
+  }
+
+  private ODocument save(ODocument doc, String name) {
+    doc.field("name", name);
+    databaseDocumentTx.save(doc);
+    return doc;
+  }
+
+  private int count(String name) {
+    OIndex<?> idx = databaseDocumentTx.getMetadata().getIndexManager().getIndex("City.name");
+    return ((Collection<?>) idx.get(name)).size();
+  }
+}
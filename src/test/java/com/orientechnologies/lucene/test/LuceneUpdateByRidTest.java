@@ -0,0 +1,139 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Checks that the updates of single valued keys replace the document of the record, in and out of transactions: no document
+ * of the previous value is left behind and none is lost.
+ */
+@Test(groups = "embedded")
+public class LuceneUpdateByRidTest extends BaseLuceneTest {
+
+  public LuceneUpdateByRidTest() {
+    super();
+  }
+
+  public LuceneUpdateByRidTest(boolean remote) {
+    super(remote);
+  }
+
+  @Override
+  protected String getDatabaseName() {
+    return "updateByRid";
+  }
+
+  @BeforeClass
+  public void init() {
+    initDB();
+
+    OSchema schema = databaseDocumentTx.getMetadata().getSchema();
+    OClass oClass = schema.createClass("City");
+
+    oClass.createProperty("name", OType.STRING);
+    databaseDocumentTx.command(new OCommandSQL("create index City.name on City (name) FULLTEXT ENGINE LUCENE")).execute();
+
+    for (int i = 0; i < 10; i++) {
+      ODocument doc = new ODocument("City");
+      doc.field("name", "Rome");
+      databaseDocumentTx.save(doc);
+    }
+  }
+
+  @AfterClass
+  public void deInit() {
+    deInitDB();
+  }
+
+  @Test
+  public void testUpdateReplacesTheDocument() {
+
+    List<ODocument> cities = query("select from City");
+    for (ODocument city : cities) {
+      city.field("name", "London");
+      databaseDocumentTx.save(city);
+    }
+
+    Assert.assertEquals(query("select from City where name LUCENE 'Rome'").size(), 0);
+    Assert.assertEquals(query("select from City where name LUCENE 'London'").size(), 10);
+
+    // THE SAME RECORD UPDATED OVER AND OVER KEEPS ONE DOCUMENT
+    final ODocument city = cities.get(0);
+    for (int i = 0; i < 50; i++) {
+      city.field("name", i % 2 == 0 ? "Paris" : "Berlin");
+      databaseDocumentTx.save(city);
+    }
+    Assert.assertEquals(query("select from City where name LUCENE 'Paris'").size(), 0);
+    Assert.assertEquals(query("select from City where name LUCENE 'Berlin'").size(), 1);
+    Assert.assertEquals(query("select from City where name LUCENE 'London'").size(), 9);
+    Assert.assertEquals(query("select from City where name LUCENE '*:*'").size(), 10);
+  }
+
+  @Test(dependsOnMethods = "testUpdateReplacesTheDocument")
+  public void testUpdateInTransaction() {
+
+    List<ODocument> cities = query("select from City where name LUCENE 'London'");
+    databaseDocumentTx.begin();
+    for (int i = 0; i < 5; i++) {
+      // UPDATED TWICE IN THE SAME TRANSACTION: ONLY THE LAST VALUE IS INDEXED
+      cities.get(i).field("name", "Madrid");
+      databaseDocumentTx.save(cities.get(i));
+      cities.get(i).field("name", "Lisbon");
+      databaseDocumentTx.save(cities.get(i));
+    }
+    databaseDocumentTx.commit();
+
+    Assert.assertEquals(query("select from City where name LUCENE 'Madrid'").size(), 0);
+    Assert.assertEquals(query("select from City where name LUCENE 'Lisbon'").size(), 5);
+    Assert.assertEquals(query("select from City where name LUCENE 'London'").size(), 4);
+    Assert.assertEquals(query("select from City where name LUCENE '*:*'").size(), 10);
+  }
+
+  @Test(dependsOnMethods = "testUpdateInTransaction")
+  public void testRolledBackUpdate() {
+
+    List<ODocument> cities = query("select from City where name LUCENE 'Lisbon'");
+    databaseDocumentTx.begin();
+    for (ODocument city : cities) {
+      city.field("name", "Vienna");
+      databaseDocumentTx.save(city);
+    }
+    databaseDocumentTx.rollback();
+
+    Assert.assertEquals(query("select from City where name LUCENE 'Vienna'").size(), 0);
+    Assert.assertEquals(query("select from City where name LUCENE 'Lisbon'").size(), 5);
+    Assert.assertEquals(query("select from City where name LUCENE '*:*'").size(), 10);
+  }
+
+  private List<ODocument> query(String sql) {
+    return databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(sql));
+  }
+}
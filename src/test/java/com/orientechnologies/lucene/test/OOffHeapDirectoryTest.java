@@ -0,0 +1,249 @@
+/*
+ *
+ *  * Copyright 2014 Orient Technologies.
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  
+ */
+
+package com.orientechnologies.lucene.test;
+
+import com.orientechnologies.lucene.directory.OOffHeapDirectory;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.Version;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Checks the files of the off-heap directory across the boundaries of its slabs, and the accounting of the memory they take.
+ */
+@Test(groups = "embedded")
+public class OOffHeapDirectoryTest {
+
+  // SIZE OF THE SLABS OF THE DIRECTORY
+  private static final int SLAB = 32 * 1024;
+
+  @Test
+  public void testReadWriteAcrossSlabs() throws IOException {
+    final OOffHeapDirectory directory = new OOffHeapDirectory(0);
+    try {
+      final int length = 3 * SLAB + 123;
+      write(directory, "data", length);
+      Assert.assertEquals(directory.fileLength("data"), length);
+
+      final IndexInput input = directory.openInput("data", IOContext.DEFAULT);
+      Assert.assertEquals(input.length(), length);
+
+      // CHUNKS NOT ALIGNED ON THE SLABS, MIXED WITH SINGLE BYTES
+      final byte[] chunk = new byte[777];
+      int position = 0;
+      while (position < length) {
+        if (position % 2 == 0 || length - position < chunk.length) {
+          Assert.assertEquals(input.readByte(), valueAt(position));
+          position++;
+        } else {
+          input.readBytes(chunk, 0, chunk.length);
+          for (int i = 0; i < chunk.length; i++)
+            Assert.assertEquals(chunk[i], valueAt(position + i));
+          position += chunk.length;
+        }
+        Assert.assertEquals(input.getFilePointer(), position);
+      }
+
+      try {
+        input.readByte();
+        Assert.fail("Read past the end of the file");
+      } catch (EOFException e) {
+      }
+      input.close();
+    } finally {
+      directory.close();
+    }
+  }
+
+  @Test
+  public void testSeek() throws IOException {
+    final OOffHeapDirectory directory = new OOffHeapDirectory(0);
+    try {
+      write(directory, "data", 2 * SLAB + 10);
+      final IndexInput input = directory.openInput("data", IOContext.DEFAULT);
+
+      // LAST BYTE OF A SLAB, THEN THE FIRST OF THE NEXT ONE
+      input.seek(SLAB - 1);
+      Assert.assertEquals(input.readByte(), valueAt(SLAB - 1));
+      Assert.assertEquals(input.readByte(), valueAt(SLAB));
+
+      // BACKWARDS IN THE SAME SLAB AND IN A PREVIOUS ONE
+      input.seek(SLAB + 5);
+      Assert.assertEquals(input.readByte(), valueAt(SLAB + 5));
+      input.seek(3);
+      Assert.assertEquals(input.readByte(), valueAt(3));
+
+      final byte[] bytes = new byte[20];
+      input.seek(2 * SLAB - 10);
+      input.readBytes(bytes, 0, bytes.length);
+      for (int i = 0; i < bytes.length; i++)
+        Assert.assertEquals(bytes[i], valueAt(2 * SLAB - 10 + i));
+
+      input.seek(2 * SLAB + 10);
+      try {
+        input.readByte();
+        Assert.fail("Read past the end of the file");
+      } catch (EOFException e) {
+      }
+      input.close();
+    } finally {
+      directory.close();
+    }
+  }
+
+  @Test
+  public void testClonePositions() throws IOException {
+    final OOffHeapDirectory directory = new OOffHeapDirectory(0);
+    try {
+      write(directory, "data", 2 * SLAB);
+      final IndexInput input = directory.openInput("data", IOContext.DEFAULT);
+      input.seek(SLAB - 2);
+
+      final IndexInput clone = input.clone();
+      Assert.assertEquals(clone.getFilePointer(), SLAB - 2);
+
+      // THE CLONE AND THE ORIGINAL MOVE INDEPENDENTLY
+      Assert.assertEquals(clone.readByte(), valueAt(SLAB - 2));
+      Assert.assertEquals(clone.readByte(), valueAt(SLAB - 1));
+      Assert.assertEquals(clone.readByte(), valueAt(SLAB));
+      Assert.assertEquals(input.getFilePointer(), SLAB - 2);
+      Assert.assertEquals(input.readByte(), valueAt(SLAB - 2));
+
+      input.seek(10);
+      Assert.assertEquals(clone.getFilePointer(), SLAB + 1);
+      Assert.assertEquals(clone.readByte(), valueAt(SLAB + 1));
+      Assert.assertEquals(input.readByte(), valueAt(10));
+      input.close();
+    } finally {
+      directory.close();
+    }
+  }
+
+  @Test
+  public void testAllocationAccounting() throws IOException {
+    final long global = OOffHeapDirectory.getGlobalAllocated();
+    final OOffHeapDirectory directory = new OOffHeapDirectory(0);
+
+    write(directory, "first", SLAB + 1);
+    Assert.assertEquals(directory.getAllocated(), 2 * SLAB);
+    write(directory, "second", 10);
+    Assert.assertEquals(directory.getAllocated(), 3 * SLAB);
+    Assert.assertEquals(OOffHeapDirectory.getGlobalAllocated() - global, 3 * SLAB);
+
+    // A FILE WRITTEN AGAIN RELEASES THE SLABS OF THE PREVIOUS ONE
+    write(directory, "first", 10);
+    Assert.assertEquals(directory.getAllocated(), 2 * SLAB);
+
+    directory.deleteFile("second");
+    Assert.assertEquals(directory.getAllocated(), SLAB);
+    Assert.assertFalse(directory.fileExists("second"));
+
+    directory.close();
+    Assert.assertEquals(directory.getAllocated(), 0);
+    Assert.assertEquals(OOffHeapDirectory.getGlobalAllocated(), global);
+  }
+
+  @Test
+  public void testCapacityLimit() throws IOException {
+    final long global = OOffHeapDirectory.getGlobalAllocated();
+    final OOffHeapDirectory directory = new OOffHeapDirectory(2 * SLAB);
+    try {
+      write(directory, "fits", 2 * SLAB);
+      try {
+        write(directory, "full", 1);
+        Assert.fail("Wrote past the limit of the directory");
+      } catch (IOException e) {
+      }
+      // THE REFUSED SLAB IS NOT ACCOUNTED
+      Assert.assertEquals(directory.getAllocated(), 2 * SLAB);
+    } finally {
+      directory.close();
+    }
+    Assert.assertEquals(OOffHeapDirectory.getGlobalAllocated(), global);
+  }
+
+  @Test
+  public void testIndexWriterRoundTrip() throws IOException {
+    final long global = OOffHeapDirectory.getGlobalAllocated();
+    final OOffHeapDirectory directory = new OOffHeapDirectory(0);
+
+    IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_47, new StandardAnalyzer(
+        Version.LUCENE_47)));
+    for (int i = 0; i < 5000; i++) {
+      Document doc = new Document();
+      doc.add(new StringField("id", String.valueOf(i), Field.Store.YES));
+      doc.add(new TextField("name", i % 5 == 0 ? "Rome" : "London", Field.Store.NO));
+      writer.addDocument(doc);
+      if (i % 1000 == 999)
+        writer.commit();
+    }
+    writer.forceMerge(1);
+    writer.close();
+    Assert.assertTrue(directory.getAllocated() > 0);
+
+    DirectoryReader reader = DirectoryReader.open(directory);
+    IndexSearcher searcher = new IndexSearcher(reader);
+    Assert.assertEquals(reader.numDocs(), 5000);
+    Assert.assertEquals(searcher.search(new TermQuery(new Term("name", "rome")), 1).totalHits, 1000);
+    Assert.assertEquals(searcher.doc(searcher.search(new TermQuery(new Term("id", "4321")), 1).scoreDocs[0].doc).get("id"),
+        "4321");
+    reader.close();
+
+    directory.close();
+    Assert.assertEquals(OOffHeapDirectory.getGlobalAllocated(), global);
+  }
+
+  private static void write(OOffHeapDirectory directory, String name, int length) throws IOException {
+    final IndexOutput output = directory.createOutput(name, IOContext.DEFAULT);
+    final byte[] chunk = new byte[1000];
+    int position = 0;
+    while (position < length) {
+      if (position % 3 == 0 || length - position < chunk.length) {
+        output.writeByte(valueAt(position));
+        position++;
+      } else {
+        for (int i = 0; i < chunk.length; i++)
+          chunk[i] = valueAt(position + i);
+        output.writeBytes(chunk, 0, chunk.length);
+        position += chunk.length;
+      }
+    }
+    output.close();
+  }
+
+  private static byte valueAt(long position) {
+    return (byte) (position % 251);
+  }
+}